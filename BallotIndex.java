@@ -0,0 +1,209 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Remembers the ballot every student last submitted for one question, so the VotingService
+ * can replace a resubmission instead of counting it twice.
+ *
+ * Students are addressed by the dense int handle the VotingService gives them. A ballot is the
+ * bitmask of chosen options (see ParsedAnswer), and its slot is sized to the question: an int for
+ * up to 32 options, a long for up to 64, and one long per 64 options beyond that. Slots live in
+ * fixed-size pages that are only allocated once a handle in that range shows up, so a million
+ * students cost about 4 MB per ordinary question. An empty ballot (0) means "no answer yet".
+ */
+class BallotIndex {
+
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // Wide ballots span several longs, so swapping one takes one of these locks
+    private static final int LOCK_STRIPES = 64;
+
+    private final int words; // longs per slot, 0 when slots are ints
+    private final Object[] locks;
+
+    // Directory of int[] or long[] pages, replaced by a bigger copy when a handle falls past the end
+    private volatile AtomicReferenceArray < Object > pages = new AtomicReferenceArray < > (16);
+
+    /**
+     * @param optionCount The number of options of the question.
+     */
+    public BallotIndex(int optionCount) {
+        this.words = optionCount <= 32 ? 0 : ParsedAnswer.wordsFor(optionCount);
+        if (words > 1) {
+            locks = new Object[LOCK_STRIPES];
+            for (int i = 0; i < LOCK_STRIPES; i++) {
+                locks[i] = new Object();
+            }
+        } else {
+            locks = null;
+        }
+    }
+
+    /**
+     * @return true if ballots need more than one long (more than 64 options).
+     */
+    public boolean isWide() {
+        return words > 1;
+    }
+
+    /**
+     * Stores the student's new ballot and hands back the one it replaced.
+     * Only for questions with up to 64 options.
+     * @param handle The student's handle.
+     * @param selection The new ballot.
+     * @return The previous ballot, or 0 if the student had not answered yet.
+     */
+    public long exchange(int handle, long selection) {
+        Object page = page(handle);
+        if (words == 0) {
+            return (int) INTS.getAndSet((int[]) page, handle & PAGE_MASK, (int) selection) & 0xFFFFFFFFL;
+        }
+        return (long) LONGS.getAndSet((long[]) page, handle & PAGE_MASK, selection);
+    }
+
+    /**
+     * Stores the student's new ballot for a question with more than 64 options and moves the
+     * student's votes in the tally from the old ballot to the new one.
+     * @param handle The student's handle.
+     * @param selection The new ballot, one long per 64 options.
+     * @param tally The question's tally.
+     * @param bank The tally bank to write into.
+     * @return true if the student had no ballot before.
+     */
+    public boolean exchange(int handle, long[] selection, OptionTally tally, int bank) {
+        long[] page = (long[]) page(handle);
+        int base = (handle & PAGE_MASK) * words;
+        boolean wasEmpty = true;
+        synchronized (locks[handle & (LOCK_STRIPES - 1)]) {
+            for (int w = 0; w < words; w++) {
+                long previous = page[base + w];
+                page[base + w] = selection[w];
+                tally.applyChange(bank, previous, selection[w], w);
+                wasEmpty &= previous == 0;
+            }
+        }
+        return wasEmpty;
+    }
+
+    /**
+     * Reads one long of the student's current ballot.
+     * @param handle The student's handle.
+     * @param word Which 64 options to read (0 for options 0-63).
+     * @return The bits of the ballot for those options, 0 if the student has not answered.
+     */
+    public long get(int handle, int word) {
+        AtomicReferenceArray < Object > directory = pages;
+        int pageNumber = handle >>> PAGE_SHIFT;
+        if (pageNumber >= directory.length() || directory.get(pageNumber) == null) {
+            return 0;
+        }
+        Object page = directory.get(pageNumber);
+        if (words == 0) {
+            return (int) INTS.getVolatile((int[]) page, handle & PAGE_MASK) & 0xFFFFFFFFL;
+        }
+        if (words == 1) {
+            return (long) LONGS.getVolatile((long[]) page, handle & PAGE_MASK);
+        }
+        synchronized (locks[handle & (LOCK_STRIPES - 1)]) {
+            return ((long[]) page)[(handle & PAGE_MASK) * words + word];
+        }
+    }
+
+    /**
+     * Copies the student's whole current ballot. A ballot of more than 64 options is read under
+     * its lock, so it is never torn between an old and a new resubmission.
+     * @param handle The student's handle.
+     * @param into Receives the ballot, one long per 64 options; all 0 if the student has not answered.
+     */
+    public void copy(int handle, long[] into) {
+        if (words <= 1) {
+            into[0] = get(handle, 0);
+            return;
+        }
+        AtomicReferenceArray < Object > directory = pages;
+        int pageNumber = handle >>> PAGE_SHIFT;
+        if (pageNumber >= directory.length() || directory.get(pageNumber) == null) {
+            Arrays.fill(into, 0, words, 0);
+            return;
+        }
+        long[] page = (long[]) directory.get(pageNumber);
+        synchronized (locks[handle & (LOCK_STRIPES - 1)]) {
+            System.arraycopy(page, (handle & PAGE_MASK) * words, into, 0, words);
+        }
+    }
+
+    /**
+     * Sets one long of the student's ballot without touching any tally, for restoring a
+     * checkpoint before voting starts.
+     * @param handle The student's handle.
+     * @param word Which 64 options the bits cover (0 for options 0-63).
+     * @param bits The ballot bits for those options.
+     */
+    public void restore(int handle, int word, long bits) {
+        if (bits == 0 && get(handle, word) == 0) {
+            return; // Leave the pages of students without a ballot unallocated
+        }
+        Object page = page(handle);
+        if (words == 0) {
+            INTS.setVolatile((int[]) page, handle & PAGE_MASK, (int) bits);
+        } else if (words == 1) {
+            LONGS.setVolatile((long[]) page, handle & PAGE_MASK, bits);
+        } else {
+            synchronized (locks[handle & (LOCK_STRIPES - 1)]) {
+                ((long[]) page)[(handle & PAGE_MASK) * words + word] = bits;
+            }
+        }
+    }
+
+    /**
+     * @return Approximate heap used by the allocated pages and the directory, in bytes.
+     */
+    public long memoryBytes() {
+        AtomicReferenceArray < Object > directory = pages;
+        long pageBytes = words == 0 ? PAGE_SIZE * 4L : PAGE_SIZE * words * 8L;
+        long bytes = 16L + directory.length() * 8L;
+        for (int i = 0; i < directory.length(); i++) {
+            if (directory.get(i) != null) {
+                bytes += 16L + pageBytes;
+            }
+        }
+        return bytes;
+    }
+
+    // Returns the page holding this handle, allocating it (and growing the directory) if needed.
+    private Object page(int handle) {
+        int pageNumber = handle >>> PAGE_SHIFT;
+        AtomicReferenceArray < Object > directory = pages;
+        if (pageNumber < directory.length()) {
+            Object page = directory.get(pageNumber);
+            if (page != null) {
+                return page;
+            }
+        }
+        synchronized (this) {
+            directory = pages;
+            if (pageNumber >= directory.length()) {
+                AtomicReferenceArray < Object > grown =
+                    new AtomicReferenceArray < > (Math.max(directory.length() * 2, pageNumber + 1));
+                for (int i = 0; i < directory.length(); i++) {
+                    grown.set(i, directory.get(i));
+                }
+                pages = grown;
+                directory = grown;
+            }
+            Object page = directory.get(pageNumber);
+            if (page == null) {
+                page = words == 0 ? new int[PAGE_SIZE] : new long[PAGE_SIZE * words];
+                directory.set(pageNumber, page);
+            }
+            return page;
+        }
+    }
+}
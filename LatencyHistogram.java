@@ -0,0 +1,110 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Lock-free latency histogram in the style of HdrHistogram: buckets are exact below 8 ns and
+ * then log-linear, eight buckets per power of two, so every recorded value lands in a bucket
+ * no more than 12.5% wide. Values up to 2^40 ns (about 18 minutes) are told apart; anything
+ * slower lands in the last bucket.
+ *
+ * Recording is a single atomic add into a fixed array. Like OptionTally, the counters are split
+ * into per-thread stripes (fewer of them, since a histogram row is large), so threads recording
+ * at once rarely share a cache line.
+ */
+final class LatencyHistogram {
+
+    private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 40;
+
+    static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    // Rows padded to whole cache lines (8 longs)
+    private static final int ROW = (BUCKETS + 7) / 8 * 8 + 8;
+    private static final int STRIPES = Math.min(8, OptionTally.STRIPES);
+
+    private final long[] counts = new long[STRIPES * ROW];
+
+    /**
+     * @param nanos The latency to record; negative values count as 0.
+     */
+    public void record(long nanos) {
+        int stripe = OptionTally.stripe() & (STRIPES - 1);
+        COUNTS.getAndAdd(counts, stripe * ROW + bucketOf(nanos), 1L);
+    }
+
+    /**
+     * @return The count of every bucket, all stripes added together.
+     */
+    public long[] copyCounts() {
+        long[] merged = new long[BUCKETS];
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                merged[bucket] += (long) COUNTS.getOpaque(counts, stripe * ROW + bucket);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return Approximate heap used by the histogram, in bytes.
+     */
+    public long memoryBytes() {
+        return 16L + counts.length * 8L;
+    }
+
+    /**
+     * @param value A latency in nanoseconds.
+     * @return The bucket the value is counted in.
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude > MAX_MAGNITUDE) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @param bucket A bucket index.
+     * @return The largest value counted in that bucket.
+     */
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lowest = (1L << magnitude) | ((long) (bucket % SUB_BUCKETS) << (magnitude - SUB_BUCKET_BITS));
+        return lowest + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * @param counts Bucket counts from copyCounts().
+     * @param percentile Between 0 and 100.
+     * @return The latency at or below which that share of the recorded values fall, or 0 if none were recorded.
+     */
+    static long valueAtPercentile(long[] counts, double percentile) {
+        long total = 0;
+        for (long count: counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return highestValueIn(bucket);
+            }
+        }
+        return highestValueIn(counts.length - 1);
+    }
+}
@@ -0,0 +1,88 @@
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fork/join task that pushes a range of simulated students through the real
+ * VotingService.submitVote path. Used by the load mode of the SimulationDriver for capacity planning.
+ *
+ * The range is split in half until it is small enough. What each student votes comes from a
+ * WorkloadProfile, which derives it from the seed and the student's number only, so the votes
+ * are the same whichever worker thread simulates which student. The checksum adds up a hash of
+ * every vote, in any order, to show that two runs really submitted the same votes.
+ */
+class LoadSimulation extends RecursiveAction implements WorkloadProfile.VoteSink {
+
+    private static final long serialVersionUID = 1L;
+
+    // Students handled by one task without splitting further
+    private static final int LEAF_STUDENTS = 4096;
+
+    private final VotingService votingService;
+    private final WorkloadProfile.Generator workload;
+    private final int from;
+    private final int to;
+    private final LongAdder votesSubmitted;
+    private final LongAdder checksum;
+    private long leafChecksum;
+
+    /**
+     * @param votingService The service receiving the votes.
+     * @param workload The votes of every student.
+     * @param votesSubmitted Counts every submitVote call made.
+     * @param checksum Sums a hash of every vote submitted.
+     */
+    public LoadSimulation(VotingService votingService, WorkloadProfile.Generator workload, LongAdder votesSubmitted, LongAdder checksum) {
+        this(votingService, workload, 0, workload.getStudents(), votesSubmitted, checksum);
+    }
+
+    private LoadSimulation(VotingService votingService, WorkloadProfile.Generator workload, int from, int to,
+        LongAdder votesSubmitted, LongAdder checksum) {
+        this.votingService = votingService;
+        this.workload = workload;
+        this.from = from;
+        this.to = to;
+        this.votesSubmitted = votesSubmitted;
+        this.checksum = checksum;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from > LEAF_STUDENTS) {
+            int middle = (from + to) >>> 1;
+            invokeAll(
+                new LoadSimulation(votingService, workload, from, middle, votesSubmitted, checksum),
+                new LoadSimulation(votingService, workload, middle, to, votesSubmitted, checksum));
+            return;
+        }
+
+        long votes = 0;
+        for (int i = from; i < to; i++) {
+            votes += workload.votesOf(i, this);
+        }
+        votesSubmitted.add(votes);
+        checksum.add(leafChecksum);
+    }
+
+    @Override
+    public void vote(String studentID, int questionIndex, String answer) {
+        votingService.submitVote(studentID, questionIndex, answer);
+        long hash = (studentID.hashCode() * 31L + questionIndex) * 0x9E3779B97F4A7C15L + answer.hashCode();
+        leafChecksum += hash ^ (hash >>> 29);
+    }
+
+    /**
+     * Builds the ID of simulated student number i: "S" followed by the zero padded number.
+     * @param i The student's number.
+     * @param digits How many digits to pad to.
+     * @return The student ID.
+     */
+    static String studentId(int i, int digits) {
+        char[] id = new char[digits + 1];
+        id[0] = 'S';
+        for (int position = digits; position > 0; position--) {
+            id[position] = (char) ('0' + i % 10);
+            i /= 10;
+        }
+        return new String(id);
+    }
+}
@@ -0,0 +1,117 @@
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Immutable copy of a VotingService's metrics: vote counters and per-question latency
+ * histograms of submitVote. Latencies are in nanoseconds and come from a sample of the votes
+ * (see VoteMetrics).
+ *
+ * writeTo() prints everything in the Prometheus text format, so a local exporter can serve
+ * a snapshot as it is.
+ */
+final class MetricsSnapshot {
+
+    private static final double[] EXPORTED_PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] EXPORTED_QUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+
+    private final long takenAtMillis;
+    private final long accepted;
+    private final long replaced;
+    private final long malformed;
+    private final long unknownOption;
+    private final long[][] latencies;
+
+    /**
+     * @param takenAtMillis When the snapshot was taken (System.currentTimeMillis).
+     * @param accepted Votes counted.
+     * @param replaced Votes that replaced the student's earlier ballot.
+     * @param malformed Votes rejected as malformed.
+     * @param unknownOption Votes rejected for naming an option that does not exist.
+     * @param latencies Per question, the bucket counts of its LatencyHistogram. Kept, not copied.
+     */
+    MetricsSnapshot(long takenAtMillis, long accepted, long replaced, long malformed, long unknownOption, long[][] latencies) {
+        this.takenAtMillis = takenAtMillis;
+        this.accepted = accepted;
+        this.replaced = replaced;
+        this.malformed = malformed;
+        this.unknownOption = unknownOption;
+        this.latencies = latencies;
+    }
+
+    public long getTakenAtMillis() {
+        return takenAtMillis;
+    }
+
+    /**
+     * @return Valid votes counted, including those that replaced an earlier ballot.
+     */
+    public long getAccepted() {
+        return accepted;
+    }
+
+    /**
+     * @return Valid votes that replaced the student's earlier ballot for the same question.
+     */
+    public long getReplaced() {
+        return replaced;
+    }
+
+    /**
+     * @return Votes dropped because the answer was invalid.
+     */
+    public long getRejected() {
+        return malformed + unknownOption;
+    }
+
+    /**
+     * @param rejection A reason for rejecting an answer.
+     * @return Votes dropped for that reason.
+     */
+    public long getRejected(ParsedAnswer.Rejection rejection) {
+        return rejection == ParsedAnswer.Rejection.MALFORMED ? malformed : unknownOption;
+    }
+
+    /**
+     * @param questionIndex The question, in configuration order.
+     * @return How many of the question's votes were timed.
+     */
+    public long getLatencySamples(int questionIndex) {
+        long samples = 0;
+        for (long count: latencies[questionIndex]) {
+            samples += count;
+        }
+        return samples;
+    }
+
+    /**
+     * @param questionIndex The question, in configuration order.
+     * @param percentile Between 0 and 100, e.g. 99.9.
+     * @return The submitVote latency in nanoseconds that share of the question's timed votes stayed within.
+     */
+    public long getLatencyPercentile(int questionIndex, double percentile) {
+        return LatencyHistogram.valueAtPercentile(latencies[questionIndex], percentile);
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format.
+     * @param out Where the metrics go.
+     * @throws IOException if out cannot be written to.
+     */
+    public void writeTo(Appendable out) throws IOException {
+        out.append("# TYPE ivote_votes_total counter\n");
+        out.append("ivote_votes_total{outcome=\"accepted\"} ").append(Long.toString(accepted)).append('\n');
+        out.append("ivote_votes_total{outcome=\"malformed\"} ").append(Long.toString(malformed)).append('\n');
+        out.append("ivote_votes_total{outcome=\"unknown_option\"} ").append(Long.toString(unknownOption)).append('\n');
+        out.append("# TYPE ivote_votes_replaced_total counter\n");
+        out.append("ivote_votes_replaced_total ").append(Long.toString(replaced)).append('\n');
+        out.append("# TYPE ivote_submit_latency_nanos summary\n");
+        for (int q = 0; q < latencies.length; q++) {
+            for (int p = 0; p < EXPORTED_PERCENTILES.length; p++) {
+                out.append(String.format(Locale.ROOT, "ivote_submit_latency_nanos{question=\"%d\",quantile=\"%s\"} %d\n",
+                    q, EXPORTED_QUANTILES[p], getLatencyPercentile(q, EXPORTED_PERCENTILES[p])));
+            }
+            out.append("ivote_submit_latency_nanos_count{question=\"").append(Integer.toString(q)).append("\"} ")
+                .append(Long.toString(getLatencySamples(q))).append('\n');
+        }
+    }
+}
@@ -0,0 +1,125 @@
+import java.util.List;
+
+/**
+ * Compiled lookup from an option code ("A", "B", "1", "12", ...) to the option's index.
+ *
+ * The code of an option is the text between its leading brackets, so "[B] Java" has the
+ * code "B". Options without brackets use their whole label as the code. Lookups work on a
+ * region of any CharSequence and never allocate, which keeps vote validation garbage free.
+ */
+class OptionCodeTable {
+
+    // Direct lookup for single ASCII character codes (the common case), -1 when unused
+    private final int[] singleChar = new int[128];
+
+    // Open addressing table of option indexes, keyed by the case folded hash of the code
+    private final int[] slots;
+    private final String[] codes;
+
+    /**
+     * Builds the table for the given option labels.
+     * @param options The option labels, for example "[A] Python".
+     * @throws IllegalArgumentException if two options share the same code.
+     */
+    public OptionCodeTable(List < String > options) {
+        codes = new String[options.size()];
+        slots = new int[Integer.highestOneBit(Math.max(2, options.size()) * 2) * 2];
+        java.util.Arrays.fill(slots, -1);
+        java.util.Arrays.fill(singleChar, -1);
+
+        for (int i = 0; i < codes.length; i++) {
+            String code = codeOf(options.get(i));
+            if (indexOf(code, 0, code.length(), true) >= 0) {
+                throw new IllegalArgumentException("Duplicate option code: " + code);
+            }
+            codes[i] = code;
+
+            int slot = hash(code, 0, code.length()) & (slots.length - 1);
+            while (slots[slot] >= 0) {
+                slot = (slot + 1) & (slots.length - 1);
+            }
+            slots[slot] = i;
+            if (code.length() == 1 && code.charAt(0) < 128) {
+                singleChar[Character.toUpperCase(code.charAt(0))] = i;
+                singleChar[Character.toLowerCase(code.charAt(0))] = i;
+            }
+        }
+    }
+
+    /**
+     * Extracts the code of an option label: "[A] Python" gives "A".
+     * @param option The option label.
+     * @return The option's code.
+     */
+    public static String codeOf(String option) {
+        int close = option.indexOf(']');
+        if (option.startsWith("[") && close > 1) {
+            return option.substring(1, close);
+        }
+        return option.trim();
+    }
+
+    /**
+     * @return The number of options in the table.
+     */
+    public int size() {
+        return codes.length;
+    }
+
+    /**
+     * @param index Index of the option.
+     * @return The option's code.
+     */
+    public String code(int index) {
+        return codes[index];
+    }
+
+    /**
+     * Finds the option whose code equals text[start, end).
+     * @param text Text holding the code.
+     * @param start First character of the code.
+     * @param end One past the last character of the code.
+     * @param ignoreCase Whether "a" should match the code "A".
+     * @return The option's index, or -1 if no option has that code.
+     */
+    public int indexOf(CharSequence text, int start, int end, boolean ignoreCase) {
+        if (end - start == 1 && text.charAt(start) < 128) {
+            int index = singleChar[text.charAt(start)];
+            if (index < 0 || (!ignoreCase && codes[index].charAt(0) != text.charAt(start))) {
+                return -1;
+            }
+            return index;
+        }
+        int slot = hash(text, start, end) & (slots.length - 1);
+        while (slots[slot] >= 0) {
+            if (matches(codes[slots[slot]], text, start, end, ignoreCase)) {
+                return slots[slot];
+            }
+            slot = (slot + 1) & (slots.length - 1);
+        }
+        return -1;
+    }
+
+    // Case folded hash so that both "a" and "A" land on the same slot
+    private static int hash(CharSequence text, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + Character.toUpperCase(text.charAt(i));
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String code, CharSequence text, int start, int end, boolean ignoreCase) {
+        if (code.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < code.length(); i++) {
+            char a = code.charAt(i);
+            char b = text.charAt(start + i);
+            if (a != b && (!ignoreCase || Character.toUpperCase(a) != Character.toUpperCase(b))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
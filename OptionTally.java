@@ -0,0 +1,111 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Vote counts for the options of one question, kept in a plain long[].
+ *
+ * The array is split into stripes, one row of counters per stripe, and each thread always adds
+ * into the same stripe. Concurrent voters therefore rarely touch the same cache line, and a vote
+ * is a single atomic add on an array slot with no allocation. Each row also counts the
+ * question's respondents (students with a ballot) in the column after the last option.
+ *
+ * All of this exists twice, as two banks. Writers add into the bank TallyEpoch says is live, and
+ * the results snapshot drains the quiet bank into its running totals (see TallyEpoch).
+ */
+class OptionTally {
+
+    private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    // Stripe rows are padded to whole cache lines (8 longs) so stripes never share one
+    private static final int LINE = 8;
+    static final int STRIPES = stripeCount();
+
+    private final int optionCount;
+    private final int rowWidth;
+    private final int bankSize;
+    private final long[] counts;
+
+    /**
+     * @param optionCount The number of options the question has.
+     */
+    public OptionTally(int optionCount) {
+        this.optionCount = optionCount;
+        this.rowWidth = ((optionCount + 1 + LINE - 1) / LINE + 1) * LINE;
+        this.bankSize = STRIPES * rowWidth;
+        this.counts = new long[2 * bankSize];
+    }
+
+    /**
+     * @return The number of options being counted.
+     */
+    public int size() {
+        return optionCount;
+    }
+
+    /**
+     * Moves one student's votes from an old ballot to a new one. Only the options that differ
+     * are touched: bits set only in the old ballot lose a vote, bits set only in the new one gain one.
+     * @param bank The live bank, from TallyEpoch.enter().
+     * @param previous The old ballot bits (0 for a first vote).
+     * @param selection The new ballot bits.
+     * @param word Which 64 options the bits cover (0 for options 0-63).
+     */
+    public void applyChange(int bank, long previous, long selection, int word) {
+        int row = bank * bankSize + stripe() * rowWidth + (word << 6);
+        long removed = previous & ~selection;
+        long added = selection & ~previous;
+        while (removed != 0) {
+            COUNTS.getAndAdd(counts, row + Long.numberOfTrailingZeros(removed), -1L);
+            removed &= removed - 1; // Clear the lowest set bit
+        }
+        while (added != 0) {
+            COUNTS.getAndAdd(counts, row + Long.numberOfTrailingZeros(added), 1L);
+            added &= added - 1;
+        }
+    }
+
+    /**
+     * Counts a student answering this question for the first time.
+     * @param bank The live bank, from TallyEpoch.enter().
+     */
+    public void addRespondent(int bank) {
+        COUNTS.getAndAdd(counts, bank * bankSize + stripe() * rowWidth + optionCount, 1L);
+    }
+
+    /**
+     * Adds everything counted in a quiet bank to the running totals and clears the bank.
+     * @param bank A bank no writer is using, from TallyEpoch.advance().
+     * @param totals One total per option, then the respondents; updated in place.
+     */
+    public void drain(int bank, long[] totals) {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            int row = bank * bankSize + stripe * rowWidth;
+            for (int column = 0; column <= optionCount; column++) {
+                long value = (long) COUNTS.getVolatile(counts, row + column);
+                if (value != 0) {
+                    totals[column] += value;
+                    COUNTS.setVolatile(counts, row + column, 0L);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Approximate heap used by the counters, in bytes.
+     */
+    public long memoryBytes() {
+        return 16L + counts.length * 8L;
+    }
+
+    // Picks this thread's stripe. Thread ids are stable, so a thread keeps hitting the same row.
+    static int stripe() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (h >>> 16) & (STRIPES - 1);
+    }
+
+    private static int stripeCount() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Math.min(64, Integer.highestOneBit(Math.max(1, processors - 1)) << 1);
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Immutable outcome of checking a student's answer against a Question: either the options that
+ * were picked, or the reason the answer was rejected.
+ *
+ * The picked options are kept as a bitmask ballot: bit i is set when option i was chosen. Questions
+ * with up to 64 options use a single long, larger ones use one long per 64 options.
+ *
+ * Results hold no reference to the answer text, so questions hand out shared instances for
+ * single picks and rejections, and only a multi-select ballot costs an allocation.
+ */
+final class ParsedAnswer {
+
+    /** Why an answer was not accepted. */
+    enum Rejection {
+        MALFORMED, // Not shaped like an answer at all, e.g. "A,,C" or an empty line
+        UNKNOWN_OPTION // Shaped correctly, but no option has that code
+    }
+
+    private static final ParsedAnswer MALFORMED = new ParsedAnswer(-1, 0, null, 0, Rejection.MALFORMED);
+    private static final ParsedAnswer UNKNOWN_OPTION = new ParsedAnswer(-1, 0, null, 0, Rejection.UNKNOWN_OPTION);
+
+    private final int optionIndex; // Lowest chosen option
+    private final long selection; // Ballot for questions with up to 64 options
+    private final long[] wideSelection; // Ballot for bigger questions, null otherwise
+    private final int selectedCount;
+    private final Rejection rejection;
+
+    private ParsedAnswer(int optionIndex, long selection, long[] wideSelection, int selectedCount, Rejection rejection) {
+        this.optionIndex = optionIndex;
+        this.selection = selection;
+        this.wideSelection = wideSelection;
+        this.selectedCount = selectedCount;
+        this.rejection = rejection;
+    }
+
+    /**
+     * Builds one accepted result per option, so questions can hand them out without allocating.
+     * @param optionCount The number of options the question has.
+     * @return accepted results, indexed by option.
+     */
+    static ParsedAnswer[] acceptedFor(int optionCount) {
+        ParsedAnswer[] accepted = new ParsedAnswer[optionCount];
+        for (int i = 0; i < optionCount; i++) {
+            if (optionCount <= 64) {
+                accepted[i] = new ParsedAnswer(i, 1L << i, null, 1, null);
+            } else {
+                long[] words = new long[wordsFor(optionCount)];
+                words[i >>> 6] = 1L << i;
+                accepted[i] = new ParsedAnswer(i, 0, words, 1, null);
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * @param selection Ballot with at least one bit set, for a question with up to 64 options.
+     * @return An accepted result for that ballot.
+     */
+    static ParsedAnswer ofSelection(long selection) {
+        return new ParsedAnswer(Long.numberOfTrailingZeros(selection), selection, null, Long.bitCount(selection), null);
+    }
+
+    /**
+     * @param words Ballot with at least one bit set, for a question with more than 64 options.
+     *              The array is kept, so the caller must not change it afterwards.
+     * @return An accepted result for that ballot.
+     */
+    static ParsedAnswer ofSelection(long[] words) {
+        int first = -1;
+        int count = 0;
+        for (int i = 0; i < words.length; i++) {
+            if (first < 0 && words[i] != 0) {
+                first = (i << 6) + Long.numberOfTrailingZeros(words[i]);
+            }
+            count += Long.bitCount(words[i]);
+        }
+        return new ParsedAnswer(first, 0, words, count, null);
+    }
+
+    /**
+     * @param rejection The reason the answer was rejected.
+     * @return The shared result for that reason.
+     */
+    static ParsedAnswer rejected(Rejection rejection) {
+        return rejection == Rejection.MALFORMED ? MALFORMED : UNKNOWN_OPTION;
+    }
+
+    /**
+     * @param optionCount The number of options of a question.
+     * @return How many longs a ballot for that question needs.
+     */
+    static int wordsFor(int optionCount) {
+        return (optionCount + 63) >>> 6;
+    }
+
+    /**
+     * @return true if the answer picked at least one option.
+     */
+    public boolean isValid() {
+        return rejection == null;
+    }
+
+    /**
+     * @return The index of the chosen option (the lowest one for a multi-select ballot),
+     *         or -1 if the answer was rejected.
+     */
+    public int getOptionIndex() {
+        return optionIndex;
+    }
+
+    /**
+     * @return How many options the ballot picks.
+     */
+    public int getSelectedCount() {
+        return selectedCount;
+    }
+
+    /**
+     * @param option Index of an option.
+     * @return true if the ballot picks that option.
+     */
+    public boolean isSelected(int option) {
+        if (wideSelection != null) {
+            return (option >>> 6) < wideSelection.length && (wideSelection[option >>> 6] & (1L << option)) != 0;
+        }
+        return option < 64 && (selection & (1L << option)) != 0;
+    }
+
+    /**
+     * @return true if the ballot is stored as several longs (question with more than 64 options).
+     */
+    public boolean isWide() {
+        return wideSelection != null;
+    }
+
+    /**
+     * @return The ballot bitmask of a question with up to 64 options.
+     */
+    public long getSelection() {
+        return selection;
+    }
+
+    // The ballot of a wide question. Shared, so it is only handed to code that never writes to it.
+    long[] wideSelection() {
+        return wideSelection;
+    }
+
+    /**
+     * @return Why the answer was rejected, or null if it was valid.
+     */
+    public Rejection getRejection() {
+        return rejection;
+    }
+}
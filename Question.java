@@ -3,6 +3,9 @@ import java.util.*;
 
 /** Superclass to serve as the basis for Single/Multiple Choice questions, as well as
  * future variations of questions if needed such as open-ended questions.
+ *
+ * A Question is never modified after it is built. parseAnswer keeps no state and prints
+ * nothing, so any number of threads can validate answers against the same question.
  */
 
 abstract class Question {
@@ -12,12 +15,19 @@ abstract class Question {
 
     // Strings to hold the valid answers a student can use.
     protected List < String > options;
-    private String fullAnswer;
+
+    // Option codes compiled once so answers can be matched without building strings
+    protected final OptionCodeTable optionCodes;
+
+    // Shared accepted results, one per option, handed out by parseAnswer
+    private final ParsedAnswer[] acceptedAnswers;
 
     // Constructor
     public Question(String questionText, List < String > options) {
         this.questionText = questionText;
         this.options = options;
+        this.optionCodes = new OptionCodeTable(options);
+        this.acceptedAnswers = ParsedAnswer.acceptedFor(options.size());
     }
 
     // Getters for retrieving question details.
@@ -27,18 +37,40 @@ abstract class Question {
     public List < String > getOptions() {
         return options;
     }
-
-    // Getter and setter for the fullAnswer field
-    public String getFullAnswer() {
-        return fullAnswer;
-    }
-    protected void setFullAnswer(String fullAnswer) {
-        this.fullAnswer = fullAnswer;
+    public OptionCodeTable getOptionCodes() {
+        return optionCodes;
     }
 
     // Distinguishes if the question is multiple choice or single
     public abstract boolean isMultipleChoice();
 
-    // Now returns boolean to indicate validity (true) or not (false)
-    public abstract boolean isValidAnswer(String answer); // Changed return type to boolean 
+    /**
+     * Checks an answer without printing anything or changing the question.
+     * @param answer The text the student typed.
+     * @return The chosen option, or the reason the answer was rejected.
+     */
+    public abstract ParsedAnswer parseAnswer(CharSequence answer);
+
+    /**
+     * Interactive form of parseAnswer: tells the user why an answer was rejected.
+     * @param answer The text the student typed.
+     * @return true for valid, false for invalid
+     */
+    public boolean isValidAnswer(String answer) {
+        ParsedAnswer parsed = parseAnswer(answer);
+        if (!parsed.isValid()) {
+            System.out.println(rejectionMessage(parsed.getRejection()));
+        }
+        return parsed.isValid();
+    }
+
+    // Message shown by isValidAnswer when an answer is rejected
+    protected String rejectionMessage(ParsedAnswer.Rejection rejection) {
+        return "Invalid answer. Please choose from: " + getOptions();
+    }
+
+    // Returns the shared accepted result for an option, or an UNKNOWN_OPTION rejection for -1
+    protected ParsedAnswer accepted(int optionIndex) {
+        return optionIndex >= 0 ? acceptedAnswers[optionIndex] : ParsedAnswer.rejected(ParsedAnswer.Rejection.UNKNOWN_OPTION);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,288 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * Immutable, indexed set of questions loaded from a definition file instead of being written
+ * into the code.
+ *
+ * A definition file is plain UTF-8 text. A line "type: text" starts a question, and the indented
+ * lines after it are its options, each starting with its code in brackets:
+ *
+ *   # The classroom poll
+ *   multiple: 1.) What are your favorite programming languages?
+ *       [A] Python
+ *       [B] Java
+ *   single: 3.) Do you take the elevator to class?
+ *       [1] for Yes
+ *       [2] for No
+ *
+ * Blank lines and lines starting with # are ignored. The types "multiple" and "single" are built
+ * in; registerType() plugs in other Question subclasses under a name of their own.
+ *
+ * Compiling a question builds its OptionCodeTable once, so the catalogue is ready to validate
+ * answers as soon as it is loaded. load() also keeps a binary image of the parsed definitions next
+ * to the file and reads that instead of the text as long as the file's contents are the same; the
+ * image is a flat run of length-prefixed strings that needs no parsing at all.
+ */
+final class QuestionCatalogue {
+
+    private static final int IMAGE_MAGIC = 0x49565143; // "IVQC"
+    private static final int IMAGE_VERSION = 2;
+    private static final int DIGEST_BYTES = 32;
+
+    // Question factories by the type name used in definition files
+    private static final Map < String, BiFunction < String, List < String > , Question > > TYPES = new ConcurrentHashMap < > ();
+
+    static {
+        TYPES.put("multiple", QuestionMultipleChoice::new);
+        TYPES.put("single", QuestionSingleChoice::new);
+    }
+
+    private final List < Question > questions;
+    private final String[] types;
+    private final Map < String, Integer > indexByText;
+
+    private QuestionCatalogue(List < Question > questions, String[] types) {
+        this.questions = Collections.unmodifiableList(new ArrayList < > (questions));
+        this.types = types;
+        this.indexByText = new HashMap < > (questions.size() * 2);
+        for (int i = 0; i < questions.size(); i++) {
+            indexByText.putIfAbsent(questions.get(i).getQuestionText(), i);
+        }
+    }
+
+    /**
+     * Makes a new kind of question available to definition files.
+     * @param type The name used in front of the question text, e.g. "ranked".
+     * @param factory Builds a question from its text and option labels.
+     */
+    public static void registerType(String type, BiFunction < String, List < String > , Question > factory) {
+        TYPES.put(type.toLowerCase(Locale.ROOT), factory);
+    }
+
+    /**
+     * Loads a definition file, using its binary image when the image was made from the same
+     * contents and refreshing the image otherwise. The image is written to the definition file's
+     * name plus ".bin"; if it cannot be written the catalogue is simply compiled from the text
+     * every time.
+     *
+     * @param definitions The definition file.
+     * @return The compiled catalogue.
+     * @throws IOException if the definition file cannot be read.
+     * @throws IllegalArgumentException if the definition file is not valid.
+     */
+    public static QuestionCatalogue load(Path definitions) throws IOException {
+        // The file is read once: the same bytes are hashed and, if the image is stale, parsed
+        byte[] text = Files.readAllBytes(definitions);
+        byte[] digest = digestOf(text);
+        Path image = definitions.resolveSibling(definitions.getFileName() + ".bin");
+        if (Files.isRegularFile(image)) {
+            try {
+                QuestionCatalogue cached = readImage(image, digest);
+                if (cached != null) {
+                    return cached;
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                // A damaged image is no worse than a stale one: compile from the text below
+            }
+        }
+
+        QuestionCatalogue catalogue = parse(new InputStreamReader(new ByteArrayInputStream(text), StandardCharsets.UTF_8));
+        try {
+            catalogue.writeImage(image, digest);
+        } catch (IOException e) {
+            // Read-only directory and the like; the image only saves time
+        }
+        return catalogue;
+    }
+
+    /**
+     * Compiles question definitions in the text format described above.
+     * @param definitions The definitions.
+     * @return The compiled catalogue.
+     * @throws IOException if reading fails.
+     * @throws IllegalArgumentException if a definition is not valid; the message names the line.
+     */
+    public static QuestionCatalogue parse(Reader definitions) throws IOException {
+        BufferedReader reader = definitions instanceof BufferedReader ? (BufferedReader) definitions : new BufferedReader(definitions);
+        List < String > typeNames = new ArrayList < > ();
+        List < String > texts = new ArrayList < > ();
+        List < List < String > > optionLists = new ArrayList < > ();
+        List < String > options = null;
+
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            if (Character.isWhitespace(line.charAt(0))) { // An option of the current question
+                if (options == null) {
+                    throw new IllegalArgumentException("Line " + lineNumber + ": option before any question");
+                }
+                options.add(trimmed);
+                continue;
+            }
+            int colon = trimmed.indexOf(':');
+            if (colon <= 0 || trimmed.substring(colon + 1).trim().isEmpty()) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": expected \"type: question text\"");
+            }
+            String type = trimmed.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            if (!TYPES.containsKey(type)) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": unknown question type '" + type + "'");
+            }
+            typeNames.add(type);
+            texts.add(trimmed.substring(colon + 1).trim());
+            options = new ArrayList < > ();
+            optionLists.add(options);
+        }
+        return compile(typeNames, texts, optionLists);
+    }
+
+    /**
+     * @return The questions, in definition order.
+     */
+    public List < Question > getQuestions() {
+        return questions;
+    }
+
+    /**
+     * @return How many questions the catalogue holds.
+     */
+    public int size() {
+        return questions.size();
+    }
+
+    /**
+     * @param index Index of the question, in definition order.
+     * @return The question.
+     */
+    public Question get(int index) {
+        return questions.get(index);
+    }
+
+    /**
+     * @param index Index of the question, in definition order.
+     * @return The type name the question was defined with, e.g. "multiple".
+     */
+    public String getType(int index) {
+        return types[index];
+    }
+
+    /**
+     * @param questionText The exact text of a question.
+     * @return Its index in definition order, or -1 if the catalogue has no such question.
+     */
+    public int indexOf(String questionText) {
+        Integer index = indexByText.get(questionText);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Writes the catalogue as a binary image that readImage() can load without parsing text.
+     * @param image The file to write; replaced if it exists.
+     * @param digest Identifies the definitions the image was made from; see digestOf().
+     * @throws IOException if the file cannot be written.
+     */
+    void writeImage(Path image, byte[] digest) throws IOException {
+        Path temporary = Files.createTempFile(image.toAbsolutePath().getParent(), image.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+                out.writeInt(IMAGE_MAGIC);
+                out.writeInt(IMAGE_VERSION);
+                out.write(digest);
+                out.writeInt(questions.size());
+                for (int q = 0; q < questions.size(); q++) {
+                    Question question = questions.get(q);
+                    out.writeUTF(types[q]);
+                    out.writeUTF(question.getQuestionText());
+                    out.writeInt(question.getOptions().size());
+                    for (String option: question.getOptions()) {
+                        out.writeUTF(option);
+                    }
+                }
+            }
+            // Readers never see half an image
+            Files.move(temporary, image, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Loads a binary image written by writeImage().
+     * @param image The image file.
+     * @param digest The digest of the definitions as they are now.
+     * @return The catalogue, or null if the image was made from different definitions.
+     * @throws IOException if the file cannot be read or is not an image.
+     */
+    static QuestionCatalogue readImage(Path image, byte[] digest) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(image), 1 << 16))) {
+            if (in.readInt() != IMAGE_MAGIC || in.readInt() != IMAGE_VERSION) {
+                throw new IOException(image + " is not a question catalogue image");
+            }
+            byte[] madeFrom = new byte[DIGEST_BYTES];
+            in.readFully(madeFrom);
+            if (!MessageDigest.isEqual(madeFrom, digest)) {
+                return null;
+            }
+            int count = in.readInt();
+            List < String > typeNames = new ArrayList < > (count);
+            List < String > texts = new ArrayList < > (count);
+            List < List < String > > optionLists = new ArrayList < > (count);
+            for (int q = 0; q < count; q++) {
+                typeNames.add(in.readUTF());
+                texts.add(in.readUTF());
+                String[] options = new String[in.readInt()];
+                for (int i = 0; i < options.length; i++) {
+                    options[i] = in.readUTF();
+                }
+                optionLists.add(Arrays.asList(options));
+            }
+            return compile(typeNames, texts, optionLists);
+        }
+    }
+
+    /**
+     * @param text The contents of a definition file.
+     * @return Their SHA-256, which changes whenever a single byte of the file does.
+     */
+    static byte[] digestOf(byte[] text) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(text);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every Java platform has SHA-256", e);
+        }
+    }
+
+    // Builds every question, which compiles its option codes
+    private static QuestionCatalogue compile(List < String > typeNames, List < String > texts, List < List < String > > optionLists) {
+        List < Question > questions = new ArrayList < > (texts.size());
+        for (int q = 0; q < texts.size(); q++) {
+            BiFunction < String, List < String > , Question > factory = TYPES.get(typeNames.get(q));
+            if (factory == null) {
+                throw new IllegalArgumentException("Unknown question type '" + typeNames.get(q) + "'");
+            }
+            List < String > options = optionLists.get(q);
+            if (options.isEmpty()) {
+                throw new IllegalArgumentException("Question '" + texts.get(q) + "' has no options");
+            }
+            try {
+                questions.add(factory.apply(texts.get(q), Collections.unmodifiableList(options)));
+            } catch (IllegalArgumentException e) { // Duplicate option codes
+                throw new IllegalArgumentException("Question '" + texts.get(q) + "': " + e.getMessage(), e);
+            }
+        }
+        return new QuestionCatalogue(questions, typeNames.toArray(new String[0]));
+    }
+}
@@ -1,7 +1,8 @@
 import java.util.List;
 
 /**
- * Subclass of the Question superclass, handles all multiple choice questions (A, B, C, D)
+ * Subclass of the Question superclass, handles all multiple choice questions (A, B, C, D).
+ * As the assignment asks, more than one choice can be chosen, including one choice.
  */
 
 class QuestionMultipleChoice extends Question {
@@ -13,28 +14,70 @@ class QuestionMultipleChoice extends Question {
 
 
     /**
-     * Verifies if answer is valid valid response (A, B, C, D) or not
-     * @return true for valid, false for invalid
+     * Verifies if answer is valid response or not. More than one choice can be given by
+     * separating the letters with commas ("A,C"). Spaces and letter case are ignored.
+     * @return the chosen options, or why the answer was rejected
      */
     @Override
-    public boolean isValidAnswer(String originalAnswer) {
-        String answer = originalAnswer.trim().toUpperCase(); // 
+    public ParsedAnswer parseAnswer(CharSequence answer) {
+        int optionCount = optionCodes.size();
+        int first = -1; // First option picked, enough on its own for the usual single letter
+        long selection = 0; // Ballot bits for up to 64 options
+        long[] wideSelection = null; // Ballot bits beyond that, only allocated for a second pick
 
-        if (answer.length() != 1) { // Check if it's a single letter
-            System.out.println("Invalid input format. Please enter a single letter.");
-            return false;
-        }
+        int end = answer.length();
+        int position = 0;
+        while (position <= end) {
+            int tokenEnd = position;
+            while (tokenEnd < end && answer.charAt(tokenEnd) != ',') {
+                tokenEnd++;
+            }
+            int start = position;
+            int stop = tokenEnd;
+            while (start < stop && answer.charAt(start) <= ' ') { // Same characters trim() removes
+                start++;
+            }
+            while (stop > start && answer.charAt(stop - 1) <= ' ') {
+                stop--;
+            }
+            if (start == stop) { // Empty answer, or nothing between two commas
+                return ParsedAnswer.rejected(ParsedAnswer.Rejection.MALFORMED);
+            }
 
-        // Find the full answer based on the letter choice (A, B, C, or D)
-        for (String option : options) {
-            if (option.startsWith("[" + answer + "]")) { // Check if option starts with the letter
-                setFullAnswer(option);
-                return true;
+            // Find the option based on the letter choice (A, B, C, or D)
+            int index = optionCodes.indexOf(answer, start, stop, true);
+            if (index < 0) {
+                return ParsedAnswer.rejected(ParsedAnswer.Rejection.UNKNOWN_OPTION);
+            }
+            if (first < 0) {
+                first = index;
+            } else if (optionCount <= 64) {
+                selection |= (1L << first) | (1L << index);
+            } else {
+                if (wideSelection == null) {
+                    wideSelection = new long[ParsedAnswer.wordsFor(optionCount)];
+                    wideSelection[first >>> 6] |= 1L << first;
+                }
+                wideSelection[index >>> 6] |= 1L << index;
             }
+            position = tokenEnd + 1;
         }
 
-        System.out.println("Invalid answer. Please choose from: " + getOptions());
-        return false;
+        if (wideSelection != null) {
+            return ParsedAnswer.ofSelection(wideSelection);
+        }
+        if (Long.bitCount(selection) > 1) {
+            return ParsedAnswer.ofSelection(selection);
+        }
+        return accepted(first); // A single choice, possibly repeated ("A,A")
+    }
+
+    @Override
+    protected String rejectionMessage(ParsedAnswer.Rejection rejection) {
+        if (rejection == ParsedAnswer.Rejection.MALFORMED) {
+            return "Invalid input format. Please enter a letter, or several letters separated by commas (A,C).";
+        }
+        return super.rejectionMessage(rejection);
     }
 
     /**
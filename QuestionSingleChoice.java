@@ -12,18 +12,12 @@ class QuestionSingleChoice extends Question {
     }
 
     /**
-     * Verifies if answer is valid or not
-     * @return true for valid, false for invalid
+     * Verifies if answer is valid or not. The option number must be typed exactly (1 or 2).
+     * @return the chosen option, or why the answer was rejected
      */
     @Override
-    public boolean isValidAnswer(String answer) {
-        if (answer.equals("1") || answer.equals("2")) {
-            setFullAnswer(answer.equals("1") ? "[1] for Yes" : "[2] for No");
-            return true; // Valid answer
-        } else {
-            System.out.println("Invalid answer. Please choose from: " + getOptions());
-            return false; // Invalid answer
-        }
+    public ParsedAnswer parseAnswer(CharSequence answer) {
+        return accepted(optionCodes.indexOf(answer, 0, answer.length(), false));
     }
 
     /**
@@ -0,0 +1,22 @@
+/**
+ * Output formats the ResultsReporter can render: the classic console text, CSV for spreadsheets
+ * and JSON for dashboards and scripts.
+ */
+enum ReportFormat {
+    TEXT,
+    CSV,
+    JSON;
+
+    /**
+     * @param name Format name, any case ("text", "csv", "json").
+     * @return The matching format.
+     * @throws IllegalArgumentException if there is no such format.
+     */
+    static ReportFormat parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(java.util.Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown report format '" + name + "', expected text, csv or json");
+        }
+    }
+}
@@ -0,0 +1,202 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background writer for reports and diagnostics. Callers hand over whole chunks of text (a
+ * rendered report, a diagnostic line) and return at once; a single writer thread copies them into
+ * a large buffered writer and only flushes when it has caught up. Thousands of lines therefore
+ * cost one lock and one flush instead of one each, and whoever produces the text never waits on
+ * the console.
+ *
+ * The queue is bounded. write() waits for room, which is fine for reports; diagnostic() never
+ * waits and drops the message instead, counting what it dropped, so it is safe to call from
+ * code that must not be slowed down. If the stream fails, the writer thread stops and records
+ * why, and write() throws an IOException from then on instead of waiting for room forever.
+ */
+class ReportWriter implements AutoCloseable {
+
+    private static final int QUEUE_CHUNKS = 1024;
+    private static final int BUFFER_CHARS = 1 << 16;
+
+    // How long write() and close() wait for room before checking the writer thread is still running
+    private static final long WAIT_MILLIS = 100;
+
+    // Marks the end of the queue when the writer is closed
+    private static final String CLOSE = new String("close");
+
+    private static ReportWriter console;
+
+    private final BlockingQueue < CharSequence > queue = new ArrayBlockingQueue < > (QUEUE_CHUNKS);
+    private final Writer out;
+    private final Thread thread;
+    private final AtomicLong dropped = new AtomicLong();
+
+    // Chunks handed over and chunks written; flush() waits until they match
+    private final AtomicLong submitted = new AtomicLong();
+    private long written;
+    private volatile boolean closed;
+
+    // Why the writer thread stopped, if the stream failed
+    private volatile IOException failure;
+
+    /**
+     * @param stream Where the text goes. It is not closed by close(), so System.out can be used.
+     */
+    public ReportWriter(OutputStream stream) {
+        this.out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_CHARS);
+        this.thread = new Thread(this::drain, "report-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return The shared writer for System.out, flushed when the JVM exits.
+     */
+    public static synchronized ReportWriter console() {
+        if (console == null) {
+            ReportWriter writer = new ReportWriter(System.out);
+            Runtime.getRuntime().addShutdownHook(new Thread(writer::close, "report-writer-shutdown"));
+            console = writer;
+        }
+        return console;
+    }
+
+    /**
+     * Queues text for writing, waiting if the queue is full.
+     * @param text The text; must not be changed afterwards.
+     * @throws IOException if the writer thread has stopped, because writing to the stream failed.
+     */
+    public void write(CharSequence text) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Report writer is closed");
+        }
+        if (!thread.isAlive()) {
+            throw stopped();
+        }
+        submitted.incrementAndGet();
+        try {
+            while (!queue.offer(text, WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (!thread.isAlive()) { // Nobody will ever make room
+                    submitted.decrementAndGet();
+                    throw stopped();
+                }
+            }
+        } catch (InterruptedException e) {
+            submitted.decrementAndGet();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues a diagnostic line without ever waiting. If the queue is full the line is dropped
+     * and counted instead.
+     * @param line The message, without a line break.
+     * @return true if the line was queued.
+     */
+    public boolean diagnostic(String line) {
+        submitted.incrementAndGet();
+        if (closed || !queue.offer(line + System.lineSeparator())) {
+            submitted.decrementAndGet();
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return How many diagnostic lines were dropped because the queue was full.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Waits until everything queued so far has been written and flushed.
+     */
+    public void flush() {
+        long target = submitted.get();
+        synchronized (this) {
+            while (written < target && thread.isAlive()) {
+                try {
+                    wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes whatever is still queued and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            while (thread.isAlive() && !queue.offer(CLOSE, WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                // The queue is full; the writer thread is still making room, or has just stopped
+            }
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Writer thread: takes a chunk, then everything else already waiting, and flushes once caught up
+    private void drain() {
+        try {
+            for (;;) {
+                CharSequence chunk = queue.take();
+                long count = 0;
+                while (chunk != null) {
+                    if (chunk == CLOSE) {
+                        finish(count);
+                        return;
+                    }
+                    out.append(chunk);
+                    count++;
+                    chunk = queue.poll();
+                }
+                out.flush();
+                synchronized (this) {
+                    written += count;
+                    notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            failure = e;
+            System.err.println("Report writer failed: " + e);
+        }
+    }
+
+    private IOException stopped() {
+        IOException cause = failure;
+        return cause != null ? new IOException("Report writer failed: " + cause.getMessage(), cause)
+            : new IOException("Report writer has stopped");
+    }
+
+    private void finish(long count) throws IOException {
+        if (dropped.get() > 0) {
+            out.append("(" + dropped.get() + " diagnostic messages were dropped)").append(System.lineSeparator());
+        }
+        out.flush();
+        synchronized (this) {
+            written += count;
+            notifyAll();
+        }
+    }
+}
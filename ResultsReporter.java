@@ -0,0 +1,243 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Renders a ResultsSnapshot as text, CSV or JSON into any Appendable, typically a StringBuilder
+ * that is then handed to a ReportWriter in one piece instead of printing line by line.
+ *
+ * TEXT reproduces the classic console output of displayResults and displayConsolidatedResults.
+ * CSV has one row per count: section, question, option, votes. JSON holds the same numbers plus
+ * the snapshot version and time. renderTrend prints each count next to its change within a
+ * TrendWindow.
+ */
+class ResultsReporter {
+
+    private ResultsReporter() {
+    }
+
+    /**
+     * Renders the per-question results followed by the consolidated results.
+     * @param results The snapshot to render.
+     * @param format The output format.
+     * @param out Where the report goes.
+     * @throws IOException if out cannot be written to.
+     */
+    public static void render(ResultsSnapshot results, ReportFormat format, Appendable out) throws IOException {
+        switch (format) {
+            case CSV:
+                out.append("section,question,option,votes\n");
+                renderQuestions(results, format, out);
+                renderConsolidated(results, format, out);
+                break;
+            case JSON:
+                out.append("{\"version\":").append(Long.toString(results.getVersion()))
+                    .append(",\"takenAtMillis\":").append(Long.toString(results.getTakenAtMillis()))
+                    .append(",\"questions\":");
+                renderQuestions(results, format, out);
+                out.append(",\"consolidated\":");
+                renderConsolidated(results, format, out);
+                out.append("}\n");
+                break;
+            default:
+                renderQuestions(results, format, out);
+                renderConsolidated(results, format, out);
+        }
+    }
+
+    /**
+     * Renders the votes for every option of every question.
+     * @param results The snapshot to render.
+     * @param format The output format.
+     * @param out Where the report goes.
+     * @throws IOException if out cannot be written to.
+     */
+    public static void renderQuestions(ResultsSnapshot results, ReportFormat format, Appendable out) throws IOException {
+        List < Question > questions = results.getQuestions();
+        if (format == ReportFormat.JSON) {
+            out.append('[');
+        }
+        for (int q = 0; q < questions.size(); q++) {
+            Question question = questions.get(q);
+            List < String > options = question.getOptions();
+            if (format == ReportFormat.TEXT) {
+                out.append("\nVoting Results for: ").append(question.getQuestionText()).append('\n'); // Reiterates the question prompt
+                for (int i = 0; i < options.size(); i++) {
+                    out.append(options.get(i)).append(": ").append(Long.toString(results.getCount(q, i))).append('\n');
+                }
+            } else if (format == ReportFormat.CSV) {
+                for (int i = 0; i < options.size(); i++) {
+                    out.append("question,");
+                    csv(question.getQuestionText(), out);
+                    out.append(',');
+                    csv(options.get(i), out);
+                    out.append(',').append(Long.toString(results.getCount(q, i))).append('\n');
+                }
+            } else {
+                out.append(q == 0 ? "{\"text\":" : ",{\"text\":");
+                json(question.getQuestionText(), out);
+                out.append(",\"respondents\":").append(Long.toString(results.getRespondents(q))).append(",\"options\":[");
+                for (int i = 0; i < options.size(); i++) {
+                    out.append(i == 0 ? "{\"option\":" : ",{\"option\":");
+                    json(options.get(i), out);
+                    out.append(",\"votes\":").append(Long.toString(results.getCount(q, i))).append('}');
+                }
+                out.append("]}");
+            }
+        }
+        if (format == ReportFormat.JSON) {
+            out.append(']');
+        }
+    }
+
+    /**
+     * Renders the totals per answer type across all questions.
+     * @param results The snapshot to render.
+     * @param format The output format.
+     * @param out Where the report goes.
+     * @throws IOException if out cannot be written to.
+     */
+    public static void renderConsolidated(ResultsSnapshot results, ReportFormat format, Appendable out) throws IOException {
+        renderGroups("Voting Results For All iVote Service Questions", results.getConsolidated(), format, out);
+    }
+
+    /**
+     * Renders totals per group, as VoteAggregator produces them.
+     * @param title Heading of the text report; CSV and JSON leave it out.
+     * @param totals The total of every group.
+     * @param format The output format.
+     * @param out Where the report goes.
+     * @throws IOException if out cannot be written to.
+     */
+    public static void renderGroups(String title, Map < String, Long > totals, ReportFormat format, Appendable out) throws IOException {
+        if (format == ReportFormat.TEXT) {
+            out.append('\n').append(title).append(":\n");
+        } else if (format == ReportFormat.JSON) {
+            out.append('{');
+        }
+        boolean first = true;
+        for (Map.Entry < String, Long > entry: totals.entrySet()) {
+            if (format == ReportFormat.TEXT) {
+                out.append('[').append(entry.getKey()).append("]: ").append(Long.toString(entry.getValue())).append('\n');
+            } else if (format == ReportFormat.CSV) {
+                out.append("consolidated,,");
+                csv(entry.getKey(), out);
+                out.append(',').append(Long.toString(entry.getValue())).append('\n');
+            } else {
+                if (!first) {
+                    out.append(',');
+                }
+                json(entry.getKey(), out);
+                out.append(':').append(Long.toString(entry.getValue()));
+            }
+            first = false;
+        }
+        if (format == ReportFormat.JSON) {
+            out.append('}');
+        }
+    }
+
+    /**
+     * Renders every option's total next to how it changed within a trend window, with the vote
+     * rate over the window.
+     * @param trend The window to render.
+     * @param format The output format.
+     * @param out Where the report goes.
+     * @throws IOException if out cannot be written to.
+     */
+    public static void renderTrend(TrendWindow trend, ReportFormat format, Appendable out) throws IOException {
+        ResultsSnapshot totals = trend.getTotals();
+        List < Question > questions = totals.getQuestions();
+        String rate = String.format(Locale.ROOT, "%.1f", trend.getVotesPerSecond());
+        if (format == ReportFormat.TEXT) {
+            out.append(String.format(Locale.ROOT, "%nTrend over the last %.1f s: %d votes, %s votes/s%n",
+                trend.getSpanMillis() / 1000.0, trend.getVotes(), rate));
+        } else if (format == ReportFormat.CSV) {
+            out.append("question,option,votes,change\n");
+        } else {
+            out.append("{\"spanMillis\":").append(Long.toString(trend.getSpanMillis()))
+                .append(",\"votes\":").append(Long.toString(trend.getVotes()))
+                .append(",\"votesPerSecond\":").append(rate)
+                .append(",\"questions\":[");
+        }
+        for (int q = 0; q < questions.size(); q++) {
+            Question question = questions.get(q);
+            List < String > options = question.getOptions();
+            if (format == ReportFormat.TEXT) {
+                out.append("\nTrend for: ").append(question.getQuestionText()).append('\n');
+                for (int i = 0; i < options.size(); i++) {
+                    out.append(options.get(i)).append(": ").append(Long.toString(totals.getCount(q, i)))
+                        .append(" (").append(signed(trend.getChange(q, i))).append(")\n");
+                }
+            } else if (format == ReportFormat.CSV) {
+                for (int i = 0; i < options.size(); i++) {
+                    csv(question.getQuestionText(), out);
+                    out.append(',');
+                    csv(options.get(i), out);
+                    out.append(',').append(Long.toString(totals.getCount(q, i)))
+                        .append(',').append(Long.toString(trend.getChange(q, i))).append('\n');
+                }
+            } else {
+                out.append(q == 0 ? "{\"text\":" : ",{\"text\":");
+                json(question.getQuestionText(), out);
+                out.append(",\"respondents\":").append(Long.toString(totals.getRespondents(q)))
+                    .append(",\"newRespondents\":").append(Long.toString(trend.getNewRespondents(q)))
+                    .append(",\"options\":[");
+                for (int i = 0; i < options.size(); i++) {
+                    out.append(i == 0 ? "{\"option\":" : ",{\"option\":");
+                    json(options.get(i), out);
+                    out.append(",\"votes\":").append(Long.toString(totals.getCount(q, i)))
+                        .append(",\"change\":").append(Long.toString(trend.getChange(q, i))).append('}');
+                }
+                out.append("]}");
+            }
+        }
+        if (format == ReportFormat.JSON) {
+            out.append("]}\n");
+        }
+    }
+
+    private static String signed(long change) {
+        return change > 0 ? "+" + change : Long.toString(change);
+    }
+
+    // Quotes a CSV field when it holds a comma, quote or line break
+    static void csv(String value, Appendable out) throws IOException {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            out.append(value);
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        out.append('"');
+    }
+
+    // Writes a JSON string literal
+    static void json(String value, Appendable out) throws IOException {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else if (c == '\r') {
+                out.append("\\r");
+            } else if (c == '\t') {
+                out.append("\\t");
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
@@ -0,0 +1,100 @@
+import java.util.*;
+
+/**
+ * Immutable, point-in-time view of a VotingService's results. Every ballot is counted whole or
+ * not at all, and a student's ballots are counted in the order they replaced each other, so a
+ * snapshot never holds a resubmission without the ballot it took back. Votes being counted while
+ * the snapshot is taken may show up in the next one instead.
+ *
+ * Snapshots are cheap to take and never block voting, so dashboards can poll them many times
+ * per second. They only hold numbers; printing is left to the caller.
+ */
+final class ResultsSnapshot {
+
+    private final long version;
+    private final long takenAtMillis;
+    private final List < Question > questions;
+    private final long[][] counts;
+    private final long[] respondents;
+    private final Map < String, Long > consolidated;
+
+    /**
+     * @param version Number of the snapshot; later snapshots of the same service have higher numbers.
+     * @param takenAtMillis When the snapshot was taken (System.currentTimeMillis).
+     * @param questions The questions, in configuration order.
+     * @param counts Per question, one count per option followed by the respondents. Kept, not copied.
+     * @param consolidated Totals per answer type (A, B, ..., True, False) across all questions.
+     */
+    ResultsSnapshot(long version, long takenAtMillis, List < Question > questions, long[][] counts, Map < String, Long > consolidated) {
+        this.version = version;
+        this.takenAtMillis = takenAtMillis;
+        this.questions = Collections.unmodifiableList(new ArrayList < > (questions));
+        this.counts = counts;
+        this.respondents = new long[counts.length];
+        for (int q = 0; q < counts.length; q++) {
+            respondents[q] = counts[q][counts[q].length - 1];
+        }
+        this.consolidated = Collections.unmodifiableMap(new LinkedHashMap < > (consolidated));
+    }
+
+    /**
+     * @return The snapshot's number, increasing with every snapshot of the same service.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return When the snapshot was taken, in milliseconds since the epoch.
+     */
+    public long getTakenAtMillis() {
+        return takenAtMillis;
+    }
+
+    /**
+     * @return The questions, in the order they were configured.
+     */
+    public List < Question > getQuestions() {
+        return questions;
+    }
+
+    /**
+     * @param questionIndex Index of the question, in configuration order.
+     * @param option Index of the option.
+     * @return How many students currently have that option in their ballot.
+     */
+    public long getCount(int questionIndex, int option) {
+        if (option < 0 || option >= counts[questionIndex].length - 1) {
+            throw new IndexOutOfBoundsException("Option " + option + " of question " + questionIndex);
+        }
+        return counts[questionIndex][option];
+    }
+
+    /**
+     * @param questionIndex Index of the question, in configuration order.
+     * @return A copy of the question's counts, one per option.
+     */
+    public long[] getCounts(int questionIndex) {
+        return Arrays.copyOf(counts[questionIndex], counts[questionIndex].length - 1);
+    }
+
+    // Per question, the counts followed by the respondents; not copied, so callers must not modify them
+    long[][] counts() {
+        return counts;
+    }
+
+    /**
+     * @param questionIndex Index of the question, in configuration order.
+     * @return How many students answered the question.
+     */
+    public long getRespondents(int questionIndex) {
+        return respondents[questionIndex];
+    }
+
+    /**
+     * @return Totals per answer type across all questions, in order of first appearance.
+     */
+    public Map < String, Long > getConsolidated() {
+        return consolidated;
+    }
+}
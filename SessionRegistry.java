@@ -0,0 +1,370 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hosts many VotingSessions in one process, one per classroom poll, keyed by session ID.
+ *
+ * Every session is pinned to one of a fixed number of worker shards (a single thread each), chosen
+ * by its ID, and its votes are counted on that shard. Votes are first queued in the session's own
+ * bounded mailbox. A shard works through the mailboxes of its sessions in turn, counting at most
+ * QUANTUM votes of one session before moving on, so a busy session shares its shard fairly and
+ * cannot hold up the quiet ones. When a mailbox is full, submitVote() returns false and the
+ * caller decides whether to retry, rather than one session filling the heap.
+ *
+ * Sessions do not share any state: each one has its own VotingService, so creating one costs a
+ * few small tables and removing one frees everything it held.
+ */
+class SessionRegistry implements AutoCloseable {
+
+    // Votes one session may count before its shard moves on to the next session
+    private static final int QUANTUM = 256;
+
+    // Rough heap cost of a vote waiting in a mailbox (queue node, vote and strings)
+    private static final long QUEUED_VOTE_BYTES = 96;
+
+    // Set in a mailbox's pending count once its session is being removed; the low bits still count tasks
+    private static final int CLOSING = 1 << 30;
+
+    static final int DEFAULT_MAILBOX_CAPACITY = 1 << 16;
+
+    private final ExecutorService[] shards;
+    private final int mailboxCapacity;
+    private final ConcurrentHashMap < String, Mailbox > sessions = new ConcurrentHashMap < > ();
+    private volatile boolean closed;
+
+    /**
+     * @param shardCount How many worker threads count votes.
+     */
+    public SessionRegistry(int shardCount) {
+        this(shardCount, DEFAULT_MAILBOX_CAPACITY);
+    }
+
+    /**
+     * @param shardCount How many worker threads count votes.
+     * @param mailboxCapacity How many votes one session may have waiting before submitVote() refuses more.
+     */
+    public SessionRegistry(int shardCount, int mailboxCapacity) {
+        if (shardCount < 1 || mailboxCapacity < 1) {
+            throw new IllegalArgumentException("Expected at least one shard and a mailbox capacity of at least 1");
+        }
+        this.mailboxCapacity = mailboxCapacity;
+        this.shards = new ExecutorService[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            String name = "session-shard-" + i;
+            shards[i] = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Starts a new session.
+     * @param sessionId The ID clients use to reach the session.
+     * @param questions The session's questions, in order.
+     * @return The new session.
+     * @throws IllegalStateException if a session with that ID already exists or the registry is closed.
+     */
+    public VotingSession create(String sessionId, List < Question > questions) {
+        if (closed) {
+            throw new IllegalStateException("Session registry is closed");
+        }
+        VotingSession session = new VotingSession();
+        session.configureQuestions(questions);
+        Mailbox mailbox = new Mailbox(sessionId, session, shards[shardOf(sessionId)]);
+        if (sessions.putIfAbsent(sessionId, mailbox) != null) {
+            throw new IllegalStateException("Session " + sessionId + " already exists");
+        }
+        return session;
+    }
+
+    /**
+     * @param sessionId The session's ID.
+     * @return The session, or null if there is none with that ID.
+     */
+    public VotingSession get(String sessionId) {
+        Mailbox mailbox = sessions.get(sessionId);
+        return mailbox == null ? null : mailbox.session;
+    }
+
+    /**
+     * @return The IDs of the sessions currently hosted.
+     */
+    public Set < String > getSessionIds() {
+        return Collections.unmodifiableSet(sessions.keySet());
+    }
+
+    /**
+     * Queues a vote for a session; it is counted shortly after on the session's shard.
+     * Invalid answers are dropped there, exactly as VotingService.submitVote drops them.
+     * @param sessionId The session.
+     * @param studentID The student voting.
+     * @param questionIndex The question, in configuration order.
+     * @param answer The student's answer.
+     * @return false if the session's mailbox is full and the vote was not queued.
+     * @throws IllegalArgumentException if there is no such session.
+     * @throws IllegalStateException if the session is being removed; the vote is not counted.
+     * @throws IndexOutOfBoundsException if the session has no such question.
+     */
+    public boolean submitVote(String sessionId, String studentID, int questionIndex, String answer) {
+        Mailbox mailbox = mailbox(sessionId);
+        int questionCount = mailbox.session.getQuestions().size();
+        if (questionIndex < 0 || questionIndex >= questionCount) {
+            throw new IndexOutOfBoundsException("Question " + questionIndex + " of session " + sessionId);
+        }
+        return mailbox.offer(new Vote(studentID, questionIndex, answer));
+    }
+
+    /**
+     * @param sessionId The session.
+     * @return Completes once every vote queued for the session before this call has been counted,
+     *         or once the session is finished if it is being removed.
+     * @throws IllegalArgumentException if there is no such session.
+     */
+    public CompletableFuture < Void > drain(String sessionId) {
+        CompletableFuture < Void > done = new CompletableFuture < > ();
+        mailbox(sessionId).append(() -> done.complete(null));
+        return done;
+    }
+
+    /**
+     * @param sessionId The session.
+     * @return The session's results as counted so far; queued votes are not included yet.
+     * @throws IllegalArgumentException if there is no such session.
+     */
+    public ResultsSnapshot snapshot(String sessionId) {
+        return mailbox(sessionId).session.snapshot();
+    }
+
+    /**
+     * Ends a session. New votes are refused at once; votes already queued, including any whose
+     * submitVote() was still under way, are counted first. Only then is the session's journal (if
+     * any) closed and its final snapshot taken, so every vote submitVote() accepted is in it.
+     * @param sessionId The session.
+     * @return Completes with the session's final results.
+     * @throws IllegalArgumentException if there is no such session.
+     */
+    public CompletableFuture < ResultsSnapshot > remove(String sessionId) {
+        Mailbox mailbox = sessions.remove(sessionId);
+        if (mailbox == null) {
+            throw new IllegalArgumentException("No session " + sessionId);
+        }
+        mailbox.close();
+        return mailbox.finished;
+    }
+
+    /**
+     * @param sessionId The session.
+     * @return Approximate heap held by the session, counted votes and queued ones, in bytes.
+     * @throws IllegalArgumentException if there is no such session.
+     */
+    public long estimateMemoryBytes(String sessionId) {
+        Mailbox mailbox = mailbox(sessionId);
+        return mailbox.session.estimateMemoryBytes() + (mailbox.pending.get() & ~CLOSING) * QUEUED_VOTE_BYTES;
+    }
+
+    /**
+     * @return Approximate heap held by each session, by session ID.
+     */
+    public Map < String, Long > memoryUsage() {
+        Map < String, Long > usage = new TreeMap < > ();
+        for (String sessionId: sessions.keySet()) {
+            try {
+                usage.put(sessionId, estimateMemoryBytes(sessionId));
+            } catch (IllegalArgumentException e) {
+                // Removed while we were looking
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * @param sessionId The session's ID.
+     * @return The shard the session's votes are counted on.
+     */
+    public int shardOf(String sessionId) {
+        int h = sessionId.hashCode() * 0x9E3779B9;
+        return (h >>> 1) % shards.length;
+    }
+
+    /**
+     * Counts whatever is still queued, then stops the shards. Journals of sessions that were
+     * never removed are closed as well.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        List < CompletableFuture < ResultsSnapshot > > removals = new ArrayList < > ();
+        for (String sessionId: new ArrayList < > (sessions.keySet())) {
+            try {
+                removals.add(remove(sessionId));
+            } catch (IllegalArgumentException e) {
+                // Already removed
+            }
+        }
+        // A mailbox with work left re-queues itself, so the shards must stay up until all are done
+        for (CompletableFuture < ResultsSnapshot > removal: removals) {
+            try {
+                removal.join();
+            } catch (RuntimeException e) {
+                System.err.println("Closing a session failed: " + e);
+            }
+        }
+        for (ExecutorService shard: shards) {
+            shard.shutdown();
+        }
+        try {
+            for (ExecutorService shard: shards) {
+                shard.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Mailbox mailbox(String sessionId) {
+        Mailbox mailbox = sessions.get(sessionId);
+        if (mailbox == null) {
+            throw new IllegalArgumentException("No session " + sessionId);
+        }
+        return mailbox;
+    }
+
+    // A vote waiting in a mailbox: just the arguments, since the mailbox already knows its session
+    private static final class Vote {
+        final String studentID;
+        final int questionIndex;
+        final String answer;
+
+        Vote(String studentID, int questionIndex, String answer) {
+            this.studentID = studentID;
+            this.questionIndex = questionIndex;
+            this.answer = answer;
+        }
+    }
+
+    /**
+     * One session's queue of work: votes and bookkeeping tasks, in the order they were queued. It
+     * is on its shard's run queue at most once at a time; when it runs it handles up to QUANTUM
+     * of them and, if more are waiting, puts itself at the back again.
+     *
+     * pending counts what has been queued and not yet handled, and submitters reserve their place
+     * in it before they add to the queue. Closing sets the CLOSING bit, after which no reservation
+     * succeeds, so the count can only fall; the session finishes when it reaches exactly CLOSING,
+     * which means every vote accepted before the close has been counted.
+     */
+    private final class Mailbox implements Runnable {
+        final String sessionId;
+        final VotingSession session;
+        final ExecutorService shard;
+        final ConcurrentLinkedQueue < Object > tasks = new ConcurrentLinkedQueue < > ();
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final AtomicBoolean finishing = new AtomicBoolean();
+        final CompletableFuture < ResultsSnapshot > finished = new CompletableFuture < > ();
+
+        Mailbox(String sessionId, VotingSession session, ExecutorService shard) {
+            this.sessionId = sessionId;
+            this.session = session;
+            this.shard = shard;
+        }
+
+        // Queues a vote if there is room and the session is not being removed
+        boolean offer(Vote vote) {
+            int reserved = pending.incrementAndGet();
+            if ((reserved & CLOSING) != 0) {
+                release();
+                throw new IllegalStateException("Session " + sessionId + " is being removed");
+            }
+            if (reserved > mailboxCapacity) {
+                release();
+                return false;
+            }
+            tasks.add(vote);
+            schedule();
+            return true;
+        }
+
+        // Queues bookkeeping work, which is never refused; once the session is closing, it runs
+        // when the session has finished instead
+        void append(Runnable task) {
+            if ((pending.incrementAndGet() & CLOSING) != 0) {
+                release();
+                finished.whenComplete((results, failure) -> task.run());
+                return;
+            }
+            tasks.add(task);
+            schedule();
+        }
+
+        // Refuses new work and finishes the session once the work already queued is done
+        void close() {
+            if (pending.getAndAdd(CLOSING) == 0) {
+                finish();
+            }
+        }
+
+        // Gives back a reservation or a handled task's place
+        private void release() {
+            if (pending.decrementAndGet() == CLOSING) {
+                finish();
+            }
+        }
+
+        // A refused offer can bring the count back to CLOSING after the session finished, hence the flag
+        private void finish() {
+            if (!finishing.compareAndSet(false, true)) {
+                return;
+            }
+            shard.execute(() -> {
+                try {
+                    session.closeJournal();
+                    finished.complete(session.snapshot());
+                } catch (IOException | RuntimeException e) {
+                    finished.completeExceptionally(e);
+                }
+            });
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                shard.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < QUANTUM; i++) {
+                Object task = tasks.poll();
+                if (task == null) {
+                    break;
+                }
+                try {
+                    if (task instanceof Vote) {
+                        Vote vote = (Vote) task;
+                        session.submitVote(vote.studentID, vote.questionIndex, vote.answer);
+                    } else {
+                        ((Runnable) task).run();
+                    }
+                } catch (RuntimeException e) {
+                    ReportWriter.console().diagnostic("Session " + sessionId + ": vote failed: " + e);
+                } finally {
+                    release();
+                }
+            }
+            scheduled.set(false);
+            if (!tasks.isEmpty()) {
+                schedule(); // More waiting: go to the back of the shard's queue
+            }
+        }
+    }
+}
@@ -1,3 +1,6 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
 /**
@@ -7,22 +10,129 @@ import java.util.*;
  * 
  * Automatic Mode: Generates 10-50 students randomly where they are associated by studentID
  * Each student has 2-5 answers per question, where it saves the most recent valid response
- * by that student to their studentID.
+ * by that student to their studentID. The seed is printed, and "--seed" repeats a run.
  * Manual Mode: Input a postive integer stating how many students are using the iVote Service
  * followed by a unique studentID. Afterward, the user will answer the questions manually.
  * 
  * At the end of manual and automatic mode, the program will display the answers using the VotingService
  * class to display all consolidated answers and answers for the individual questions.
  * 
+ * Load Mode: Started from the command line instead of the menu, for capacity planning:
+ *     java SimulationDriver load <students> [threads]
+ * Simulates the given number of students on a fork/join pool, submitting their answers concurrently
+ * through the VotingService. What they answer follows the session's WorkloadProfile, which the
+ * options below shape; the same seed gives the same votes whatever the number of threads.
+ * threads defaults to the number of processors.
+ *
+ * Ingest Mode: replays votes from CSV or NDJSON files, or standard input for "-", as they stream in:
+ *     java SimulationDriver ingest <file|-> [more files]
+ *
+ * Sessions Mode: hosts many polls side by side in one process, as a SessionRegistry does:
+ *     java SimulationDriver sessions <sessions> <studentsPerSession> [shards]
+ *
+ * Serve Mode: takes votes over TCP on localhost through a VoteGateway until Enter is pressed:
+ *     java SimulationDriver serve [port] [workers]
+ * port defaults to 7070 and workers to the number of processors. VoteGatewayLoadTest drives it.
+ *
+ * Any mode can be started with "--journal <file>" in front of the other arguments. Every accepted
+ * vote is then logged to that file, and votes already in it from an earlier run are replayed first.
+ * "--checkpoint <file>" restores the session from that checkpoint file if it exists, checkpoints it
+ * there every few seconds while it runs, and once more at the end.
+ * "--questions <file>" replaces the classroom poll with the questions of a definition file, in
+ * the format QuestionCatalogue describes.
+ * "--format <text|csv|json>" picks the format the results are printed in (text by default).
+ * "--trend <seconds>" also prints how every count changed over the last that many seconds, and
+ * the rate of votes over them.
+ * "--seed <n>" seeds the simulated students of the automatic and load modes (random by default).
+ * "--skew <uniform|zipf|zipf:exponent>" spreads their answers evenly or favours some options.
+ * "--resubmit <rate>" is the chance a student answers a question again after each answer (0.7 by default).
+ * "--invalid <rate>" is the share of answers that are invalid (0 by default).
  */
 
 public class SimulationDriver {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
         VotingSession session = new VotingSession();
 
-        // Configures questions from the configureQuestions method
-        session.configureQuestions();
+        // Options come first, each followed by its value
+        Path questionFile = null;
+        Path journalFile = null;
+        Path checkpointFile = null;
+        int trendSeconds = 0;
+        while (args.length > 1 && args[0].startsWith("--")) {
+            if ("--questions".equals(args[0])) {
+                questionFile = Paths.get(args[1]);
+            } else if ("--journal".equals(args[0])) {
+                journalFile = Paths.get(args[1]);
+            } else if ("--checkpoint".equals(args[0])) {
+                checkpointFile = Paths.get(args[1]);
+            } else if ("--format".equals(args[0])) {
+                session.setReportFormat(ReportFormat.parse(args[1]));
+            } else if ("--trend".equals(args[0])) {
+                trendSeconds = Integer.parseInt(args[1]);
+            } else if ("--seed".equals(args[0])) {
+                session.setWorkloadProfile(session.getWorkloadProfile().withSeed(Long.parseLong(args[1])));
+            } else if ("--skew".equals(args[0])) {
+                session.setWorkloadProfile(session.getWorkloadProfile().withZipfExponent(WorkloadProfile.parseSkew(args[1])));
+            } else if ("--resubmit".equals(args[0])) {
+                session.setWorkloadProfile(session.getWorkloadProfile().withResubmissionRate(Double.parseDouble(args[1])));
+            } else if ("--invalid".equals(args[0])) {
+                session.setWorkloadProfile(session.getWorkloadProfile().withInvalidRate(Double.parseDouble(args[1])));
+            } else {
+                System.out.println("Unknown option " + args[0] + ", expected --questions <file>, --journal <file>, "
+                    + "--checkpoint <file>, --format <text|csv|json>, --trend <seconds>, --seed <n>, "
+                    + "--skew <uniform|zipf[:exponent]>, --resubmit <rate> or --invalid <rate>");
+                return;
+            }
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+
+        // Configures the questions of the definition file, or the classroom poll by default.
+        // The journal refers to questions by position, so it can only be opened after this.
+        if (questionFile != null) {
+            session.configureQuestions(questionFile);
+        } else {
+            session.configureQuestions();
+        }
+        // A checkpoint is restored first, so the journal only replays what came after it
+        if (checkpointFile != null) {
+            session.openCheckpoint(checkpointFile);
+        }
+        if (journalFile != null) {
+            session.openJournal(journalFile);
+        }
+        // Only now is the state complete, so the first periodic checkpoint cannot miss the replay
+        session.startCheckpoints();
+        if (trendSeconds > 0) {
+            session.setTrendWindow(trendSeconds);
+        }
+
+        try {
+            run(session, args);
+        } finally {
+            session.closeCheckpoint();
+            session.closeJournal();
+        }
+    }
+
+    // Runs the mode chosen on the command line, or asks for manual/automatic mode
+    private static void run(VotingSession session, String[] args) {
+        if (args.length > 0 && "load".equals(args[0])) {
+            runLoadMode(session, args);
+            return;
+        }
+        if (args.length > 0 && "ingest".equals(args[0])) {
+            runIngestMode(session, args);
+            return;
+        }
+        if (args.length > 0 && "sessions".equals(args[0])) {
+            runSessionsMode(session, args);
+            return;
+        }
+        if (args.length > 0 && "serve".equals(args[0])) {
+            runServeMode(session, args);
+            return;
+        }
 
         System.out.println("Welcome to the iVote Service!");
         System.out.println("=============================\n");
@@ -43,227 +153,95 @@ public class SimulationDriver {
         session.displayResults(); // Show the voting results
         inputScan.close(); // Closed the scanner
     }
-}
-
-/**  VotingSession holds the question configuration, a manual/auto mode for usage, and 
- * the ability to call the VotingService class to provide the logged collected votes. 
- */
-class VotingSession {
-    private VotingService votingService = new VotingService();
-    private List < Question > questionList = new ArrayList < > ();
-    private boolean automaticMode; // Whether automatic or manual mode
-
-
-    /**
-     * Configures the questions for the voting session
-     * and adds them to the questionList
-     * Covers part 2/3 of the question prompt
-     */
-    public void configureQuestions() {
-        questionList.add(new QuestionMultipleChoice(
-            "1.) What are your favorite programming languages?",
-            Arrays.asList("[A] Python", "[B] Java", "[C] C++", "[D] Rust")
-        ));
-        questionList.add(new QuestionMultipleChoice(
-            "2.) What is your favorite day?",
-            Arrays.asList("[A] Monday", "[B] Tuesday", "[C] Friday", "[D] Saturday")
-        ));
-        questionList.add(new QuestionSingleChoice(
-            "3.) Do you take the elevator to class?",
-            Arrays.asList("[1] for Yes", "[2] for No")
-        ));
-        questionList.add(new QuestionSingleChoice(
-            "4.) Is this class CS3560?",
-            Arrays.asList("[1] for Yes", "[2] for No")
-        ));
-        questionList.forEach(votingService::configureQuestion);
-    }
-
 
-    /**
-     * Prompts the user to select the mode manual or automatic.
-     * @param scanner Saves the users input for mode.
-     */
-    public void selectMode(Scanner scanner) {
-
-        boolean validMode = false;
-        while (!validMode) { // Loop until a valid mode response is given.
-            System.out.println("Press [1] for manual mode");
-            System.out.println("Press [2] for automatic mode");
-            String mode = scanner.nextLine();
-
-            if ("1".equals(mode)) {
-                automaticMode = false; // Manual mode
-                validMode = true;
-            } else if ("2".equals(mode)) {
-                automaticMode = true; // Automatic mode
-                validMode = true;
-            } else {
-                System.out.println("Invalid mode selection. Please enter 1 or 2.");
-            }
+    // Parses the load mode arguments and runs the simulation
+    private static void runLoadMode(VotingSession session, String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java SimulationDriver [--seed <n>] [--skew <uniform|zipf[:exponent]>] "
+                + "[--resubmit <rate>] [--invalid <rate>] load <students> [threads]");
+            return;
         }
+        int numberOfStudents = Integer.parseInt(args[1]);
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        session.simulateLoad(numberOfStudents, threads);
+        session.displayResults();
     }
 
-    /**
-     * Simulates student responses in automatic mode.
-     * Generates a random number of students (10-50), assigns them IDs,
-     * and automatically generates random answers for each question.
-     */
-    public void generateStudents() {
-        Random random = new Random();
-        int numberOfStudents = 10 + random.nextInt(41); 
-        System.out.println("Number of students participating: " + numberOfStudents);
-    
-        List<Student> students = new ArrayList<>();
-        for (int i = 0; i < numberOfStudents; i++) {
-            String studentId = String.format("%05d", random.nextInt(100000));
-            students.add(new Student(studentId));
+    // Replays vote files (or stdin) into the session and shows the results
+    private static void runIngestMode(VotingSession session, String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java SimulationDriver ingest <file|-> [more files]");
+            return;
         }
-    
-        // Store last valid answers per student and question
-        Map<String, Map<Question, String>> lastValidAnswers = new HashMap<>();
-        for (Student student : students) {
-            lastValidAnswers.put(student.getStudentID(), new HashMap<>());
-        }
-    
-        // Simulate students having multiple answers per question but only storing
-        // the most recent answer
-        for (Student student : students) {
-            for (Question question : questionList) {
-                // Generates 2-5 answers per question
-                int numAnswers = 2 + random.nextInt(4); 
-                for (int j = 0; j < numAnswers; j++) {
-                    String answer = generateValidAnswer(question, random);
-                    if (question.isValidAnswer(answer)) { // Checks if the generated answers are valid before saving
-                        lastValidAnswers.get(student.getStudentID()).put(question, answer); 
-                    }
-                }
-            }
-        }
-       
-        // If answer was valid, it will save the lastValidAnswer and add it to the student's ID as their answer for that question
-        // "If multiple submissions are received from the same student, only the last submission will be counted."
-        for (Student student : students) {
-            for (Question question : questionList) {
-                String lastValidAnswer = lastValidAnswers.get(student.getStudentID()).get(question);
-                if (lastValidAnswer != null) {
-                    student.submitAnswer(lastValidAnswer);
-                    votingService.submitVote(student, question); // Submits the response to the votingService class
-                }
-            }
+        try {
+            session.ingest(Arrays.asList(args).subList(1, args.length));
+        } catch (IOException e) {
+            System.out.println("Could not read votes: " + e.getMessage());
+            return;
         }
+        session.displayResults();
     }
-    
 
-
-    /**
-     * Generates random valid answers to be used in conjunction with generateStudents
-     * @param question The question for which to generate an answer.
-     * @param answer   A response for the generator
-     * @return Returns the students answer
-     */
-    private String generateValidAnswer(Question question, Random random) {
-        List < String > options = question.getOptions();
-
-        if (question.isMultipleChoice()) {
-            int randomIndex = random.nextInt(options.size());
-            String option = options.get(randomIndex);
-            return option.substring(1, 2).toUpperCase(); // Extract and return A, B, C, or D
-        } else {
-            return random.nextInt(2) == 0 ? "1" : "2"; // Return 1 or 2 for single-choice
+    // Takes votes over the network until Enter is pressed (or stdin ends) and shows the results
+    private static void runServeMode(VotingSession session, String[] args) {
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 7070;
+        int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        try {
+            session.serve(port, workers, System.in);
+        } catch (IOException e) {
+            System.out.println("Vote gateway failed: " + e.getMessage());
+            return;
         }
+        session.displayResults();
     }
 
-
-
-    /**
-     * Collects responses if driver is in manual mode.
-     * Prompts for the number of students and then takes individual responses for each question.
-     * @param scanner The Scanner object for reading user input.
-     */
-    public void collectStudentResponses(Scanner scanner) {
-        Map < String, String > studentRecords = new HashMap < > ();
-        System.out.print("How many students are using the iVote service? ");
-        int numberOfStudents = Integer.parseInt(scanner.nextLine());
-
-        for (int i = 0; i < numberOfStudents; i++) {
-            String studentID;
-            boolean uniqueID = false;
-
-
-            do {
-                System.out.print("Enter student ID: ");
-                studentID = scanner.nextLine();
-
-                // Error handling if the studentID has already been taken.
-                if (studentRecords.containsValue(studentID)) {
-                    System.out.println("This student ID has already been used. Please enter a unique ID.");
-                } else {
-                    uniqueID = true;
-                    studentRecords.put("Student " + (i + 1), studentID);
+    // Hosts many polls at once in a SessionRegistry and has every student of every poll vote once
+    private static void runSessionsMode(VotingSession session, String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: java SimulationDriver sessions <sessions> <studentsPerSession> [shards]");
+            return;
+        }
+        int numberOfSessions = Integer.parseInt(args[1]);
+        int studentsPerSession = Integer.parseInt(args[2]);
+        int shards = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        List < Question > questions = session.getQuestions();
+        System.out.println("Hosting " + numberOfSessions + " sessions of " + studentsPerSession + " students on " + shards + " shards");
+
+        try (SessionRegistry registry = new SessionRegistry(shards)) {
+            long start = System.nanoTime();
+            for (int s = 0; s < numberOfSessions; s++) {
+                registry.create("poll-" + s, questions);
+            }
+            java.util.stream.IntStream.range(0, numberOfSessions).parallel().forEach(s -> {
+                String sessionId = "poll-" + s;
+                SplittableRandom random = new SplittableRandom(s);
+                for (int i = 0; i < studentsPerSession; i++) {
+                    String studentId = LoadSimulation.studentId(i, 8);
+                    for (int q = 0; q < questions.size(); q++) {
+                        OptionCodeTable codes = questions.get(q).getOptionCodes();
+                        String answer = codes.code(random.nextInt(codes.size()));
+                        while (!registry.submitVote(sessionId, studentId, q, answer)) {
+                            Thread.yield(); // Mailbox full, let the shard catch up
+                        }
+                    }
                 }
-            } while (!uniqueID);
-
-            // For each unique studentID begin providing the questionList
-            Student student = new Student(studentID);
-            for (Question question: questionList) {
-                String answer;
-                do {
-                    System.out.println(question.getQuestionText());
-                    System.out.println("Choose an answer from: " + String.join(", ", question.getOptions()));
-                    answer = scanner.nextLine();
-                } while (!question.isValidAnswer(answer));
-
-                student.submitAnswer(answer);
-                votingService.submitVote(student, question);
+            });
+            long memory = 0;
+            for (int s = 0; s < numberOfSessions; s++) {
+                registry.drain("poll-" + s).join();
+                memory += registry.estimateMemoryBytes("poll-" + s);
+            }
+            long elapsedNanos = System.nanoTime() - start;
+
+            long votes = (long) numberOfSessions * studentsPerSession * questions.size();
+            System.out.printf("Counted %d votes in %d ms (%.0f votes/s), about %d KB per session%n",
+                votes, elapsedNanos / 1_000_000, votes * 1e9 / Math.max(1, elapsedNanos),
+                memory / Math.max(1, numberOfSessions) / 1024);
+            if (numberOfSessions > 0) {
+                ResultsSnapshot first = registry.snapshot("poll-0");
+                System.out.println("poll-0: " + first.getRespondents(0) + " respondents, consolidated " + first.getConsolidated());
             }
         }
     }
-
-
-    // Originally was used to create a studentID provided by a user's name. Opted for using a studentID system 
-    // instead to avoid having to deal with duplicate names.
-    /**
-     * Retrieves a unique student ID from the user and ensures it hasn't been used before.
-     *
-     * @param scanner The Scanner object for reading user input.
-     * @param studentRecords A map storing the names and IDs of students who have already responded.
-     * @return A unique student ID string.
-     */
-    // private String getUniqueStudentID(Scanner scanner, Map < String, String > studentRecords) {
-    //     String studentName;
-    //     String studentID = "";
-    //     boolean uniqueID = false; // Checks if the ID is unique
-
-    //     do {
-    //         System.out.print("Enter student's name: ");
-    //         studentName = scanner.nextLine();
-    //         if (studentRecords.containsKey(studentName)) {
-    //             System.out.println("A student may only take the test once.");
-    //             System.out.println("The student ID " + studentRecords.get(studentName) + " has already been used.");
-    //         } else {
-    //             // Generate random ID directly within the method:
-    //             studentID = String.format("%05d", randomID.nextInt(100000));
-    //             System.out.println("This is " + studentName + "'s ID number: " + studentID);
-    //             studentRecords.put(studentName, studentID);
-    //             uniqueID = true; // Set the flag when a unique ID is found
-    //         }
-    //     } while (!uniqueID); // Loop until a unique ID is found
-
-    //     return studentID;
-    // }
-
-
-
-    // Checks whether its mode is automatic or manual
-    public boolean isAutomaticMode() {
-        return automaticMode;
-    }
-
-    // Calls the votingService class methods to display the counted results of users
-    public void displayResults() {
-        votingService.displayResults();
-        votingService.displayConsolidatedResults();
-    }
-
-}
\ No newline at end of file
+}
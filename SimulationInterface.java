@@ -7,6 +7,9 @@
     // Submits a student's vote for a specific question.
     void submitVote(Student student, Question question);
 
+    // Submits a whole batch of votes in one pass; returns how many were counted.
+    int submitVotes(VoteBatch batch);
+
     // Displays an students results for each of their questions.
     void displayResults();
 
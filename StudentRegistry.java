@@ -0,0 +1,359 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Maps student IDs to dense int handles (0, 1, 2, ...) without keeping an object per student.
+ *
+ * The IDs themselves are copied into large byte chunks, one byte per character when the ID is
+ * Latin-1 (as student numbers are) and two otherwise. Lookups go through an open-addressing hash
+ * table of longs, each slot holding the ID's hash and its handle, and per-handle state lives in
+ * paged long arrays. Registering a student and checking whether an ID is taken are both O(1),
+ * and a million short IDs take roughly 30 MB instead of the few hundred a HashMap of Strings needs.
+ *
+ * The table is split into segments by hash. Lookups never lock: a slot is published with release
+ * semantics only after the ID bytes it points to are written. Registering a new ID locks its
+ * segment, so threads registering different students rarely meet.
+ *
+ * Handles are handed out before their IDs are stored, and students in different segments are
+ * stored at the same time, so handles can complete out of order. size() only counts the handles
+ * up to the first one still being stored, so every handle below it can be read back at once,
+ * e.g. by a checkpoint running next to the voters.
+ */
+final class StudentRegistry {
+
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    // The top 6 bits of the hash pick the segment, the low bits the slot within it
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int INITIAL_SLOTS = 64;
+
+    // ID bytes go into chunks that double from 256 bytes up to 1 MB, so an empty registry stays small
+    private static final int FIRST_CHUNK_BYTES = 256;
+    private static final int CHUNK_BYTES = 1 << 20;
+    static final int MAX_ID_LENGTH = (1 << 15) - 1;
+
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final AtomicInteger nextHandle = new AtomicInteger();
+
+    // Every handle below this has its location stored; see commit()
+    private final AtomicInteger committed = new AtomicInteger();
+
+    // Set in every stored location, so a location of 0 means "not stored yet"
+    private static final long STORED = 1L << 36;
+
+    // Where each handle's ID is stored (see Segment.store), in pages of PAGE_SIZE handles
+    private volatile AtomicReferenceArray < long[] > locations = new AtomicReferenceArray < > (16);
+
+    public StudentRegistry() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(i);
+        }
+    }
+
+    /**
+     * @param studentID The student's ID.
+     * @return The student's handle, or -1 if the ID has not been registered.
+     */
+    public int find(CharSequence studentID) {
+        int hash = hash(studentID);
+        Segment segment = segments[hash >>> (32 - SEGMENT_BITS)];
+        return segment.find(studentID, hash, segment.table);
+    }
+
+    /**
+     * Returns the student's handle, registering the ID with the next free handle if it is new.
+     * @param studentID The student's ID, at most MAX_ID_LENGTH characters.
+     * @return The student's handle.
+     * @throws IllegalArgumentException if the ID is too long.
+     */
+    public int register(CharSequence studentID) {
+        int hash = hash(studentID);
+        Segment segment = segments[hash >>> (32 - SEGMENT_BITS)];
+        int handle = segment.find(studentID, hash, segment.table);
+        return handle >= 0 ? handle : segment.insert(studentID, hash);
+    }
+
+    /**
+     * Sizes the tables for the given number of students up front, so registering that many does
+     * not rehash along the way; for bulk loads such as restoring a checkpoint.
+     * @param students How many students are expected in total.
+     */
+    public void ensureCapacity(int students) {
+        int perSegment = students / SEGMENTS + 1;
+        for (Segment segment: segments) {
+            synchronized (segment) {
+                while ((perSegment + perSegment / 8) * 4 > segment.table.length * 3) { // Some slack for an uneven spread
+                    segment.resize();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return How many students are registered: every handle below this can be passed to
+     *         getStudentId(). A student still being registered on another thread may be left out.
+     */
+    public int size() {
+        return committed.get();
+    }
+
+    /**
+     * @param handle A handle register() has returned.
+     * @return The student's ID.
+     * @throws IndexOutOfBoundsException if no student has that handle.
+     */
+    public String getStudentId(int handle) {
+        long location = handle >= 0 && handle < nextHandle.get() ? location(handle) : 0;
+        if (location == 0) { // Never handed out, or still being stored by another thread
+            throw new IndexOutOfBoundsException("No student with handle " + handle);
+        }
+        Segment segment = segments[(int) (location >>> 58)];
+        byte[] chunk = segment.chunks[(int) (location >>> 38) & 0xFFFFF];
+        int offset = (int) (location >>> 16) & (CHUNK_BYTES - 1);
+        int length = (int) location & MAX_ID_LENGTH;
+        if ((location & (1L << 15)) == 0) {
+            char[] id = new char[length];
+            for (int i = 0; i < length; i++) {
+                id[i] = (char) (chunk[offset + i] & 0xFF);
+            }
+            return new String(id);
+        }
+        char[] id = new char[length];
+        for (int i = 0; i < length; i++) {
+            id[i] = (char) (((chunk[offset + 2 * i] & 0xFF) << 8) | (chunk[offset + 2 * i + 1] & 0xFF));
+        }
+        return new String(id);
+    }
+
+    /**
+     * @return Approximate heap used by the registry, in bytes.
+     */
+    public long memoryBytes() {
+        long bytes = 16L + locations.length() * 8L;
+        for (int i = 0; i < locations.length(); i++) {
+            if (locations.get(i) != null) {
+                bytes += 16L + PAGE_SIZE * 8L;
+            }
+        }
+        for (Segment segment: segments) {
+            bytes += segment.memoryBytes();
+        }
+        return bytes;
+    }
+
+    // String caches its hashCode, and any other CharSequence gets the same polynomial
+    private static int hash(CharSequence id) {
+        int h;
+        if (id instanceof String) {
+            h = id.hashCode();
+        } else {
+            h = 0;
+            for (int i = 0; i < id.length(); i++) {
+                h = 31 * h + id.charAt(i);
+            }
+        }
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // The handle's location, or 0 while it is still being stored
+    private long location(int handle) {
+        AtomicReferenceArray < long[] > directory = locations;
+        int pageNumber = handle >>> PAGE_SHIFT;
+        long[] page = pageNumber < directory.length() ? directory.get(pageNumber) : null;
+        return page != null ? (long) SLOTS.getAcquire(page, handle & PAGE_MASK) : 0;
+    }
+
+    // Moves the committed count past every handle whose location is stored. Each registration
+    // calls this after storing its own location, so the count never waits on a finished handle.
+    private void commit() {
+        for (int done = committed.get(); done < nextHandle.get() && location(done) != 0; done = committed.get()) {
+            committed.compareAndSet(done, done + 1);
+        }
+    }
+
+    // Returns the page holding this handle's location, allocating it (and growing the directory) if needed.
+    private long[] locationPage(int handle) {
+        int pageNumber = handle >>> PAGE_SHIFT;
+        AtomicReferenceArray < long[] > directory = locations;
+        if (pageNumber < directory.length()) {
+            long[] page = directory.get(pageNumber);
+            if (page != null) {
+                return page;
+            }
+        }
+        synchronized (this) {
+            directory = locations;
+            if (pageNumber >= directory.length()) {
+                AtomicReferenceArray < long[] > grown =
+                    new AtomicReferenceArray < > (Math.max(directory.length() * 2, pageNumber + 1));
+                for (int i = 0; i < directory.length(); i++) {
+                    grown.set(i, directory.get(i));
+                }
+                locations = grown;
+                directory = grown;
+            }
+            long[] page = directory.get(pageNumber);
+            if (page == null) {
+                page = new long[PAGE_SIZE];
+                directory.set(pageNumber, page);
+            }
+            return page;
+        }
+    }
+
+    /**
+     * One slice of the hash table with its own ID bytes. A slot is 0 when empty, otherwise the
+     * ID's hash in the high half and handle + 1 in the low half.
+     *
+     * An ID's location packs the segment (6 bits), chunk (20 bits), the STORED flag, offset in the
+     * chunk (20 bits), a flag for two bytes per character and the length (15 bits) into one long.
+     */
+    private final class Segment {
+        final int index;
+        volatile long[] table = new long[INITIAL_SLOTS];
+        volatile byte[][] chunks = new byte[][] { new byte[FIRST_CHUNK_BYTES] };
+        int used; // Bytes used in the last chunk
+        int count;
+
+        Segment(int index) {
+            this.index = index;
+        }
+
+        // Lock-free lookup in the given table; a miss is only final once checked under the lock
+        int find(CharSequence id, int hash, long[] slots) {
+            int mask = slots.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                long entry = (long) SLOTS.getAcquire(slots, slot);
+                if (entry == 0) {
+                    return -1;
+                }
+                if ((int) (entry >>> 32) == hash) {
+                    int handle = (int) entry - 1;
+                    if (matches(location(handle), id)) {
+                        return handle;
+                    }
+                }
+            }
+        }
+
+        synchronized int insert(CharSequence id, int hash) {
+            int handle = find(id, hash, table); // Someone may have registered it since
+            if (handle >= 0) {
+                return handle;
+            }
+            if (id.length() > MAX_ID_LENGTH) {
+                throw new IllegalArgumentException("Student ID is longer than " + MAX_ID_LENGTH + " characters");
+            }
+            if ((count + 1) * 4 > table.length * 3) { // Keep the table at most 3/4 full
+                resize();
+            }
+            handle = nextHandle.getAndIncrement();
+            SLOTS.setRelease(locationPage(handle), handle & PAGE_MASK, store(id));
+            commit();
+
+            long[] slots = table;
+            int mask = slots.length - 1;
+            int slot = hash & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            // The ID bytes and location are written first, so a reader that sees the slot sees them too
+            SLOTS.setRelease(slots, slot, ((long) hash << 32) | ((handle + 1) & 0xFFFFFFFFL));
+            count++;
+            return handle;
+        }
+
+        // Copies the ID into the chunks and returns its location
+        private long store(CharSequence id) {
+            int length = id.length();
+            boolean wide = false;
+            for (int i = 0; i < length; i++) {
+                if (id.charAt(i) > 0xFF) {
+                    wide = true;
+                    break;
+                }
+            }
+            int bytes = wide ? 2 * length : length;
+            byte[][] current = chunks;
+            if (used + bytes > current[current.length - 1].length) {
+                int size = Math.min(CHUNK_BYTES, current[current.length - 1].length * 2);
+                current = Arrays.copyOf(current, current.length + 1);
+                current[current.length - 1] = new byte[Math.max(size, bytes)];
+                chunks = current;
+                used = 0;
+            }
+            byte[] chunk = current[current.length - 1];
+            int offset = used;
+            for (int i = 0; i < length; i++) {
+                char c = id.charAt(i);
+                if (wide) {
+                    chunk[offset + 2 * i] = (byte) (c >>> 8);
+                    chunk[offset + 2 * i + 1] = (byte) c;
+                } else {
+                    chunk[offset + i] = (byte) c;
+                }
+            }
+            used += bytes;
+            return ((long) index << 58) | ((long) (current.length - 1) << 38) | STORED | ((long) offset << 16)
+                | (wide ? 1L << 15 : 0) | length;
+        }
+
+        private boolean matches(long location, CharSequence id) {
+            int length = (int) location & MAX_ID_LENGTH;
+            if (length != id.length()) {
+                return false;
+            }
+            byte[] chunk = chunks[(int) (location >>> 38) & 0xFFFFF];
+            int offset = (int) (location >>> 16) & (CHUNK_BYTES - 1);
+            if ((location & (1L << 15)) == 0) {
+                for (int i = 0; i < length; i++) {
+                    if ((chunk[offset + i] & 0xFF) != id.charAt(i)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            for (int i = 0; i < length; i++) {
+                char c = (char) (((chunk[offset + 2 * i] & 0xFF) << 8) | (chunk[offset + 2 * i + 1] & 0xFF));
+                if (c != id.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Doubles the table. Readers still on the old one may miss new IDs, and then retry under the lock.
+        private void resize() {
+            long[] old = table;
+            long[] grown = new long[old.length * 2];
+            int mask = grown.length - 1;
+            for (long entry: old) {
+                if (entry != 0) {
+                    int slot = (int) (entry >>> 32) & mask;
+                    while (grown[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    grown[slot] = entry;
+                }
+            }
+            table = grown;
+        }
+
+        long memoryBytes() {
+            long bytes = 64L + table.length * 8L;
+            for (byte[] chunk: chunks) {
+                bytes += 16L + chunk.length;
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Coordinates vote writers with the results snapshot, so a snapshot is consistent without
+ * ever making a writer wait.
+ *
+ * Every OptionTally keeps two banks of counters. Writers add into the live bank, bracketed by
+ * enter() and exit(). To take a snapshot, advance() switches the live bank and waits only for
+ * the writers already inside the old bank to finish (a few nanoseconds each). The old bank is
+ * then quiet: it holds exactly the votes made before the switch and can be folded into the
+ * totals. Votes made after the switch land in the other bank and belong to the next snapshot.
+ *
+ * A writer may also add into the bank that is live at the moment it writes, even if that is not
+ * the one it entered (see live()). Only one advance() happens while it is inside: the snapshot
+ * that switched the bank waits for the writer before it returns, so the bank the writer adds
+ * into is not folded until the next snapshot, after the writer has left.
+ *
+ * Writers count themselves in per-thread stripes, always the same stripe for a given thread,
+ * so entering and leaving never contends and a stripe is never negative.
+ */
+class TallyEpoch {
+
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    // One padded cell per bank per stripe
+    private static final int PAD = 8;
+
+    private final long[] inFlight = new long[2 * OptionTally.STRIPES * PAD];
+    private volatile int live;
+
+    /**
+     * Registers the calling thread as writing into the live bank.
+     * @return The bank to write into; pass it back to exit().
+     */
+    public int enter() {
+        int stripe = OptionTally.stripe();
+        for (;;) {
+            int bank = live;
+            int cell = (bank * OptionTally.STRIPES + stripe) * PAD;
+            CELLS.getAndAdd(inFlight, cell, 1L);
+            if (live == bank) {
+                return bank;
+            }
+            CELLS.getAndAdd(inFlight, cell, -1L); // Switched under us, use the new bank instead
+        }
+    }
+
+    /**
+     * The bank writers are sent to right now. A writer that has entered may add into this bank
+     * instead of the one enter() returned, which lets it order its change after every change
+     * it has to follow (see VotingService.applyBallot).
+     * @return The live bank.
+     */
+    public int live() {
+        return live;
+    }
+
+    /**
+     * @param bank The bank returned by enter().
+     */
+    public void exit(int bank) {
+        CELLS.getAndAdd(inFlight, (bank * OptionTally.STRIPES + OptionTally.stripe()) * PAD, -1L);
+    }
+
+    /**
+     * Switches writers to the other bank and waits until nobody is writing into the old one.
+     * Only one thread may call this at a time, and it must fold the old bank before calling again.
+     * @return The bank that is now quiet.
+     */
+    public int advance() {
+        int old = live;
+        live = 1 - old;
+        int spins = 0;
+        while (inFlight(old) != 0) {
+            if (++spins < 1000) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield(); // A writer was descheduled inside its vote
+            }
+        }
+        return old;
+    }
+
+    private long inFlight(int bank) {
+        long sum = 0;
+        for (int stripe = 0; stripe < OptionTally.STRIPES; stripe++) {
+            sum += (long) CELLS.getVolatile(inFlight, (bank * OptionTally.STRIPES + stripe) * PAD);
+        }
+        return sum;
+    }
+}
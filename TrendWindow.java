@@ -0,0 +1,79 @@
+/**
+ * Immutable comparison of a VotingService's results at two moments: the counts at the end of
+ * the window (the all-time totals) and how much each of them changed within the window.
+ *
+ * Changes are net: a student who switched from one option to another within the window takes
+ * one vote from the first and adds one to the second. Questions configured during the window
+ * count as having started from zero.
+ */
+final class TrendWindow {
+
+    private final ResultsSnapshot start;
+    private final ResultsSnapshot end;
+    private final long acceptedAtStart;
+    private final long acceptedAtEnd;
+
+    /**
+     * @param start The results when the window opened.
+     * @param acceptedAtStart Valid votes counted by then.
+     * @param end The results when the window closed.
+     * @param acceptedAtEnd Valid votes counted by then.
+     */
+    TrendWindow(ResultsSnapshot start, long acceptedAtStart, ResultsSnapshot end, long acceptedAtEnd) {
+        this.start = start;
+        this.end = end;
+        this.acceptedAtStart = acceptedAtStart;
+        this.acceptedAtEnd = acceptedAtEnd;
+    }
+
+    /**
+     * @return The results at the end of the window, i.e. the totals for the whole session.
+     */
+    public ResultsSnapshot getTotals() {
+        return end;
+    }
+
+    /**
+     * @return How long the window actually is, in milliseconds. It can be shorter than asked
+     *         for when the trend has not been running that long.
+     */
+    public long getSpanMillis() {
+        return end.getTakenAtMillis() - start.getTakenAtMillis();
+    }
+
+    /**
+     * @param questionIndex Index of the question, in configuration order.
+     * @param option Index of the option.
+     * @return How many more (or, if negative, fewer) students have the option in their ballot
+     *         than when the window opened.
+     */
+    public long getChange(int questionIndex, int option) {
+        long now = end.getCount(questionIndex, option);
+        return questionIndex < start.getQuestions().size() ? now - start.getCount(questionIndex, option) : now;
+    }
+
+    /**
+     * @param questionIndex Index of the question, in configuration order.
+     * @return How many students answered the question for the first time within the window.
+     */
+    public long getNewRespondents(int questionIndex) {
+        long now = end.getRespondents(questionIndex);
+        return questionIndex < start.getQuestions().size() ? now - start.getRespondents(questionIndex) : now;
+    }
+
+    /**
+     * @return Valid votes counted within the window, resubmissions included. Only counted while
+     *         the service's metrics are enabled.
+     */
+    public long getVotes() {
+        return acceptedAtEnd - acceptedAtStart;
+    }
+
+    /**
+     * @return The average rate of valid votes over the window.
+     */
+    public double getVotesPerSecond() {
+        long millis = getSpanMillis();
+        return millis > 0 ? getVotes() * 1000.0 / millis : 0;
+    }
+}
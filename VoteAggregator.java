@@ -0,0 +1,150 @@
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Consolidates vote counts across questions into groups, such as every option with the code "A"
+ * or every single-choice question, following a Grouping.
+ *
+ * The grouping is only consulted once per option, when the question is added: it is compiled
+ * into a group number for every option of every question. Aggregating a set of counts is then a
+ * single pass of array additions over the primitive tallies, with no strings and no map lookups,
+ * for any number of questions and options. Large polls are reduced in parallel, each worker
+ * summing a range of questions into its own array before the arrays are added up.
+ */
+final class VoteAggregator {
+
+    /**
+     * Decides which group an option's votes are counted in.
+     */
+    @FunctionalInterface
+    interface Grouping {
+        /**
+         * @param question The question.
+         * @param option Index of one of its options.
+         * @return The name of the option's group, or null to leave the option out.
+         */
+        String keyOf(Question question, int option);
+    }
+
+    /**
+     * The classic consolidation: by option code, with the codes 1 and 2 of single-choice (yes/no)
+     * questions counted as True and False. A multiple-choice question numbered 1, 2, ... keeps its codes.
+     */
+    static final Grouping BY_ANSWER_TYPE = (question, option) -> {
+        String code = question.getOptionCodes().code(option);
+        if (question.isMultipleChoice()) {
+            return code;
+        }
+        return code.equals("1") ? "True" : code.equals("2") ? "False" : code;
+    };
+
+    /** By option code exactly as written, e.g. "A" or "12". */
+    static final Grouping BY_OPTION_CODE = (question, option) -> question.getOptionCodes().code(option);
+
+    /** All the votes of multiple-choice questions against all those of single-choice ones. */
+    static final Grouping BY_QUESTION_TYPE = (question, option) -> question.isMultipleChoice() ? "Multiple choice" : "Single choice";
+
+    // Below this many questions a parallel reduction costs more than it saves
+    private static final int PARALLEL_QUESTIONS = 1024;
+
+    private final Grouping grouping;
+
+    // Group names in order of first appearance, and the group of each option of each question (-1 for none)
+    private final List < String > keys = new ArrayList < > ();
+    private final Map < String, Integer > keyIndexes = new HashMap < > ();
+    private final List < int[] > groups = new ArrayList < > ();
+
+    /**
+     * @param grouping How options are grouped.
+     */
+    public VoteAggregator(Grouping grouping) {
+        this.grouping = grouping;
+    }
+
+    /**
+     * @param grouping How options are grouped.
+     * @param questions The questions to aggregate, in configuration order.
+     * @return An aggregator with all the questions added.
+     */
+    public static VoteAggregator of(Grouping grouping, List < Question > questions) {
+        VoteAggregator aggregator = new VoteAggregator(grouping);
+        for (Question question: questions) {
+            aggregator.addQuestion(question);
+        }
+        return aggregator;
+    }
+
+    /**
+     * Works out the group of every option of the next question.
+     * @param question The question, added in configuration order.
+     */
+    public synchronized void addQuestion(Question question) {
+        int[] optionGroups = new int[question.getOptionCodes().size()];
+        for (int option = 0; option < optionGroups.length; option++) {
+            String key = grouping.keyOf(question, option);
+            if (key == null) {
+                optionGroups[option] = -1;
+                continue;
+            }
+            Integer index = keyIndexes.get(key);
+            if (index == null) {
+                index = keys.size();
+                keys.add(key);
+                keyIndexes.put(key, index);
+            }
+            optionGroups[option] = index;
+        }
+        groups.add(optionGroups);
+    }
+
+    /**
+     * Adds up the counts of every group.
+     * @param counts Per question, in the order the questions were added, at least one count per
+     *        option; anything after the options (such as respondents) is ignored. May cover
+     *        fewer questions than were added.
+     * @return The total of every group, in order of first appearance.
+     */
+    public synchronized Map < String, Long > aggregate(long[][] counts) {
+        int[][] plan = groups.subList(0, Math.min(counts.length, groups.size())).toArray(new int[0][]);
+        int keyCount = keys.size();
+        long[] totals;
+        if (plan.length < PARALLEL_QUESTIONS) {
+            totals = new long[keyCount];
+            for (int q = 0; q < plan.length; q++) {
+                add(plan[q], counts[q], totals);
+            }
+        } else {
+            totals = IntStream.range(0, plan.length).parallel().collect(
+                () -> new long[keyCount],
+                (partial, q) -> add(plan[q], counts[q], partial),
+                (left, right) -> {
+                    for (int key = 0; key < keyCount; key++) {
+                        left[key] += right[key];
+                    }
+                });
+        }
+
+        Map < String, Long > result = new LinkedHashMap < > ();
+        for (int key = 0; key < keyCount; key++) {
+            result.put(keys.get(key), totals[key]);
+        }
+        return result;
+    }
+
+    /**
+     * @param results A snapshot of the same questions, in the same order.
+     * @return The total of every group in the snapshot.
+     */
+    public Map < String, Long > aggregate(ResultsSnapshot results) {
+        return aggregate(results.counts());
+    }
+
+    private static void add(int[] optionGroups, long[] questionCounts, long[] totals) {
+        for (int option = 0; option < optionGroups.length; option++) {
+            int group = optionGroups[option];
+            if (group >= 0) {
+                totals[group] += questionCounts[option];
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+import java.util.Arrays;
+
+/**
+ * A batch of votes for VotingService.submitVotes, stored as columns: one array of student IDs,
+ * one of question indexes and one of answers, plus the outcome of each vote once submitted.
+ *
+ * A batch is meant to be reused. Fill it with add(), submit it, read the outcomes, then clear()
+ * it for the next frame; the arrays only grow, so a warmed-up batch allocates nothing.
+ */
+final class VoteBatch {
+
+    private String[] studentIds;
+    private int[] questionIndexes;
+    private CharSequence[] answers;
+
+    // Filled in by VotingService.submitVotes
+    private ParsedAnswer[] results;
+    private int[] handles;
+
+    private int size;
+
+    /**
+     * @param capacity How many votes the batch holds before it has to grow.
+     */
+    public VoteBatch(int capacity) {
+        int initial = Math.max(1, capacity);
+        studentIds = new String[initial];
+        questionIndexes = new int[initial];
+        answers = new CharSequence[initial];
+        results = new ParsedAnswer[initial];
+        handles = new int[initial];
+    }
+
+    /**
+     * Appends a vote to the batch.
+     * @param studentID The student voting.
+     * @param questionIndex The question, in configuration order.
+     * @param answer The student's answer; must not change until the batch is submitted.
+     */
+    public void add(String studentID, int questionIndex, CharSequence answer) {
+        if (size == studentIds.length) {
+            int grown = size * 2;
+            studentIds = Arrays.copyOf(studentIds, grown);
+            questionIndexes = Arrays.copyOf(questionIndexes, grown);
+            answers = Arrays.copyOf(answers, grown);
+            results = Arrays.copyOf(results, grown);
+            handles = Arrays.copyOf(handles, grown);
+        }
+        studentIds[size] = studentID;
+        questionIndexes[size] = questionIndex;
+        answers[size] = answer;
+        results[size] = null;
+        size++;
+    }
+
+    /**
+     * Empties the batch so it can be filled again.
+     */
+    public void clear() {
+        Arrays.fill(studentIds, 0, size, null);
+        Arrays.fill(answers, 0, size, null);
+        Arrays.fill(results, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * @return How many votes the batch holds.
+     */
+    public int size() {
+        return size;
+    }
+
+    public String getStudentId(int i) {
+        return studentIds[check(i)];
+    }
+
+    public int getQuestionIndex(int i) {
+        return questionIndexes[check(i)];
+    }
+
+    public CharSequence getAnswer(int i) {
+        return answers[check(i)];
+    }
+
+    /**
+     * @param i Position of the vote in the batch.
+     * @return The parsed answer, telling whether the vote was counted and why not; null before the batch is submitted.
+     */
+    public ParsedAnswer getResult(int i) {
+        return results[check(i)];
+    }
+
+    /**
+     * @param i Position of the vote in the batch.
+     * @return true if the vote was valid and counted.
+     */
+    public boolean isAccepted(int i) {
+        ParsedAnswer result = results[check(i)];
+        return result != null && result.isValid();
+    }
+
+    // Records the outcome of vote i
+    void setResult(int i, ParsedAnswer result) {
+        results[i] = result;
+    }
+
+    // Scratch column for the student handles, only used while the batch is being counted
+    int[] handles() {
+        return handles;
+    }
+
+    private int check(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Vote " + i + " of a batch of " + size);
+        }
+        return i;
+    }
+}
@@ -0,0 +1,281 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Compact binary checkpoint of a VotingService: every student ID, in handle order, and the
+ * ballot each student holds for each question. Restoring one rebuilds the service in a single
+ * pass over the file instead of replaying every vote ever made; the counts are recomputed from
+ * the ballots on the way, so they always match them.
+ *
+ * File layout (little endian):
+ *   0  long  magic "IVOTECKP"
+ *   8  int   version
+ *  12  int   number of questions, then per question: option count (int), hash of its text (int)
+ *      long  journal sequence to resume replay from, 0 when no journal was open
+ *      long  time the checkpoint was taken (System.currentTimeMillis)
+ *      int   number of students, then per student: ID length in bytes (varint), ID in UTF-8
+ *      then per question, per student, per 64 options: the ballot bits (varint)
+ * Varints are 7 bits per byte, low bits first, so the usual one-option ballots take a byte or two.
+ *
+ * A checkpoint is written while votes keep coming. It starts from a results snapshot, whose
+ * epoch switch waits for every ballot already journalled to be applied, and then copies the
+ * ballots as they are. Each copied ballot is one the student really held during the copy; with
+ * a journal, the ballots from the recorded sequence on are replayed after a restore, so the
+ * rebuilt state is exactly the journalled one.
+ *
+ * An instance writes checkpoints in the background, on a daemon thread, like the journal's
+ * flusher. The file is written beside the target and moved over it, so a crash never leaves
+ * half a checkpoint behind.
+ */
+class VoteCheckpoint implements AutoCloseable {
+
+    private static final long MAGIC = 0x504B4345544F5649L; // "IVOTECKP"
+    private static final int VERSION = 1;
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private final Thread writer;
+    private boolean closed;
+
+    /**
+     * Starts writing a checkpoint of the service to the file every interval.
+     * @param votingService The service to checkpoint.
+     * @param file The checkpoint file; each checkpoint replaces the previous one.
+     * @param intervalMillis Time between checkpoints.
+     */
+    VoteCheckpoint(VotingService votingService, Path file, long intervalMillis) {
+        writer = new Thread(() -> {
+            while (waitFor(intervalMillis)) {
+                try {
+                    votingService.writeCheckpoint(file);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Vote checkpoint failed: " + e);
+                }
+            }
+        }, "vote-checkpoint");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops writing checkpoints. A checkpoint being written is finished first, never cut short.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Sleeps until the next checkpoint is due; false once closed
+    private synchronized boolean waitFor(long millis) {
+        long deadline = System.currentTimeMillis() + millis;
+        try {
+            for (long left = millis; !closed && left > 0; left = deadline - System.currentTimeMillis()) {
+                wait(left);
+            }
+        } catch (InterruptedException e) {
+            return false;
+        }
+        return !closed;
+    }
+
+    /**
+     * Writes a checkpoint.
+     * @param file The checkpoint file, replaced if it exists.
+     * @param questions The configured questions, in order.
+     * @param ballots Each question's BallotIndex, in the same order.
+     * @param students The student registry.
+     * @param studentCount How many students (handles) to write.
+     * @param journalSequence Where replay of the journal should resume, 0 without a journal.
+     * @throws IOException if the file cannot be written.
+     */
+    static void write(Path file, List < Question > questions, List < BallotIndex > ballots, StudentRegistry students,
+                      int studentCount, long journalSequence) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putLong(MAGIC).putInt(VERSION).putInt(questions.size());
+            for (Question question: questions) {
+                room(channel, buffer, 8);
+                buffer.putInt(question.getOptionCodes().size()).putInt(question.getQuestionText().hashCode());
+            }
+            room(channel, buffer, 20);
+            buffer.putLong(journalSequence).putLong(System.currentTimeMillis()).putInt(studentCount);
+
+            for (int handle = 0; handle < studentCount; handle++) {
+                byte[] id = students.getStudentId(handle).getBytes(StandardCharsets.UTF_8);
+                room(channel, buffer, id.length + 5);
+                putVarint(buffer, id.length);
+                buffer.put(id);
+            }
+            for (int q = 0; q < questions.size(); q++) {
+                BallotIndex index = ballots.get(q);
+                long[] ballot = new long[ParsedAnswer.wordsFor(questions.get(q).getOptionCodes().size())];
+                for (int handle = 0; handle < studentCount; handle++) {
+                    index.copy(handle, ballot); // All words at once, so a wide ballot is not torn
+                    for (long word: ballot) {
+                        room(channel, buffer, 10);
+                        putVarint(buffer, word);
+                    }
+                }
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a checkpoint into an empty service: registers the students in handle order, restores
+     * their ballots and adds up the counts.
+     * @param file The checkpoint file.
+     * @param questions The configured questions; they must match the checkpoint's.
+     * @param ballots Each question's BallotIndex, in the same order.
+     * @param students The student registry; must be empty.
+     * @param totals Per question, one total per option followed by the respondents; filled in.
+     * @return The journal sequence to resume replay from, 0 if the checkpoint had no journal.
+     * @throws IOException if the file cannot be read or is not a checkpoint.
+     * @throws IllegalStateException if the checkpoint does not match the configured questions.
+     */
+    static long read(Path file, List < Question > questions, List < BallotIndex > ballots, StudentRegistry students,
+                     long[][] totals) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be a vote checkpoint");
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            in.order(ByteOrder.LITTLE_ENDIAN);
+            try {
+                return read(in, questions, ballots, students, totals);
+            } catch (java.nio.BufferUnderflowException | IndexOutOfBoundsException e) {
+                throw new IOException(file + " is cut short", e);
+            }
+        }
+    }
+
+    private static long read(ByteBuffer in, List < Question > questions, List < BallotIndex > ballots, StudentRegistry students,
+                             long[][] totals) throws IOException {
+        if (in.remaining() < 16 || in.getLong() != MAGIC || in.getInt() != VERSION) {
+            throw new IOException("Not a version " + VERSION + " vote checkpoint");
+        }
+        int questionCount = in.getInt();
+        if (questionCount != questions.size()) {
+            throw new IllegalStateException("Checkpoint holds " + questionCount + " questions but "
+                + questions.size() + " are configured");
+        }
+        for (int q = 0; q < questionCount; q++) {
+            Question question = questions.get(q);
+            if (in.getInt() != question.getOptionCodes().size() || in.getInt() != question.getQuestionText().hashCode()) {
+                throw new IllegalStateException("Question " + q + " of the checkpoint is not '" + question.getQuestionText() + "'");
+            }
+        }
+        long journalSequence = in.getLong();
+        in.getLong(); // Taken at
+        int studentCount = in.getInt();
+
+        // IDs are decoded into one reusable buffer; the registry copies what it keeps
+        students.ensureCapacity(studentCount);
+        StringBuilder id = new StringBuilder();
+        byte[] bytes = new byte[64];
+        for (int handle = 0; handle < studentCount; handle++) {
+            int length = (int) getVarint(in);
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            in.get(bytes, 0, length);
+            id.setLength(0);
+            boolean ascii = true;
+            for (int i = 0; i < length && ascii; i++) {
+                ascii = bytes[i] >= 0;
+            }
+            if (ascii) {
+                for (int i = 0; i < length; i++) {
+                    id.append((char) bytes[i]);
+                }
+            } else {
+                id.append(new String(bytes, 0, length, StandardCharsets.UTF_8));
+            }
+            if (students.register(id) != handle) {
+                throw new IOException("Checkpoint lists student " + id + " twice, or the service already has students");
+            }
+        }
+
+        for (int q = 0; q < questionCount; q++) {
+            BallotIndex index = ballots.get(q);
+            long[] questionTotals = totals[q];
+            int optionCount = questions.get(q).getOptionCodes().size();
+            int words = ParsedAnswer.wordsFor(optionCount);
+            for (int handle = 0; handle < studentCount; handle++) {
+                boolean answered = false;
+                for (int word = 0; word < words; word++) {
+                    long bits = getVarint(in);
+                    if (bits == 0) {
+                        continue;
+                    }
+                    if (word * 64 + 64 - Long.numberOfLeadingZeros(bits) > optionCount) {
+                        throw new IOException("Checkpoint ballot of student " + handle + " names an option question " + q + " does not have");
+                    }
+                    index.restore(handle, word, bits);
+                    answered = true;
+                    for (long rest = bits; rest != 0; rest &= rest - 1) {
+                        questionTotals[(word << 6) + Long.numberOfTrailingZeros(rest)]++;
+                    }
+                }
+                if (answered) {
+                    questionTotals[optionCount]++;
+                }
+            }
+        }
+        return journalSequence;
+    }
+
+    // Makes room for the next bytes, writing out the buffer when it is too full
+    private static void room(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    private static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarint(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed number in vote checkpoint");
+    }
+}
@@ -0,0 +1,609 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Small network front end of a VotingService: clients connect over TCP (normally on localhost)
+ * and send votes and queries as lines of text, one command per line:
+ *
+ *   VOTE <studentId> <question> <answer>   question numbers start at 1; the answer is the rest of the line
+ *   RESULTS [text|csv|json]                 the full report, like displayResults
+ *   QUESTIONS                               the questions, in the QuestionCatalogue definition format
+ *   METRICS                                 the service's metrics in the Prometheus text format
+ *   STATS                                   the gateway's own counters
+ *   QUIT                                    closes the connection once every reply is sent
+ *
+ * Every line gets a reply, in order: "OK" or "REJECTED <reason>" for a vote, "ERR <message>" for
+ * a line that cannot be understood or a vote that could not be counted, and for the queries their
+ * text followed by a line holding just ".". Clients may send any number of lines without waiting
+ * for the replies. A last line is still answered if the client closes without ending it.
+ *
+ * All connections share one selector thread, which does nothing but move bytes and parse lines.
+ * The votes parsed from one connection are collected into a VoteBatch, and the batch is handed
+ * to a small pool of worker threads through a bounded queue; a worker counts it with one call to
+ * VotingService.submitVotes. A connection is not read any further while its batch is being
+ * counted, nor while too many of its replies are still unsent. When the queue is full, finished
+ * batches wait at the selector and their connections stay unread too, so a client sending faster
+ * than the service counts is slowed down by TCP flow control instead of filling the heap.
+ *
+ * RESULTS and METRICS never reach the queue or the workers. A refresher thread of their own
+ * takes a ResultsSnapshot every RESULTS_REFRESH_MILLIS and renders every report format and the
+ * metrics from it, and the selector answers a query by copying the latest rendering out. However
+ * many clients poll, the results cost one snapshot and one rendering per interval, on a thread
+ * the votes do not wait for.
+ */
+class VoteGateway implements AutoCloseable {
+
+    // Votes counted in one submitVotes call at most
+    static final int MAX_BATCH = 512;
+
+    // Also the longest line accepted
+    private static final int READ_BUFFER_BYTES = 1 << 16;
+
+    // A connection is not read while it has this many bytes of replies unsent
+    private static final int MAX_UNSENT_BYTES = 1 << 20;
+
+    // How often the results and metrics served to queries are rebuilt
+    static final long RESULTS_REFRESH_MILLIS = 100;
+
+    private static final byte[] OK = "OK\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END = ".\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final VotingService votingService;
+    private final int questionCount;
+    private final byte[] questionDefinitions;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final Thread selectorThread;
+    private final Thread[] workers;
+    private final Thread refresher;
+
+    // Batches waiting for a worker, and batches counted that the selector has not answered yet
+    private final ArrayBlockingQueue < Connection > submissions;
+    private final ConcurrentLinkedQueue < Connection > counted = new ConcurrentLinkedQueue < > ();
+
+    // Batches that found the queue full, in arrival order; only touched by the selector thread
+    private final ArrayDeque < Connection > waiting = new ArrayDeque < > ();
+
+    // Results served to queries, the reports rendered from them by format, and the metrics.
+    // Only the refresher writes them, each time replacing the arrays instead of changing them.
+    private volatile ResultsSnapshot results;
+    private volatile byte[][] reports;
+    private volatile byte[] metrics;
+
+    private final LongAdder votesReceived = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private int connections;
+    private volatile boolean closed;
+
+    /**
+     * Starts accepting connections.
+     * @param votingService The service receiving the votes; its questions must already be configured.
+     * @param address Where to listen, e.g. new InetSocketAddress(InetAddress.getLoopbackAddress(), 7070).
+     *        Port 0 picks a free port; see getPort().
+     * @param workerCount How many threads count votes.
+     * @throws IOException if the address cannot be bound.
+     */
+    public VoteGateway(VotingService votingService, InetSocketAddress address, int workerCount) throws IOException {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("Expected at least one worker");
+        }
+        this.votingService = votingService;
+        this.questionCount = votingService.getQuestionCount();
+        this.questionDefinitions = definitionsOf(votingService.snapshot().getQuestions());
+        this.submissions = new ArrayBlockingQueue < > (workerCount * 2);
+        refresh(); // Queries are answered from the start
+
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        try {
+            server.bind(address);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+
+        workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Thread(this::count, "vote-gateway-worker-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        refresher = new Thread(this::refreshResults, "vote-gateway-results");
+        refresher.setDaemon(true);
+        refresher.start();
+        selectorThread = new Thread(this::serve, "vote-gateway");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    /**
+     * @return The port the gateway listens on.
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * @return How many votes clients have sent, valid or not.
+     */
+    public long getVotesReceived() {
+        return votesReceived.sum();
+    }
+
+    /**
+     * @return How many times a batch of votes had to wait because every worker was busy.
+     */
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    /**
+     * The results served to queries: the refresher's latest snapshot, about RESULTS_REFRESH_MILLIS
+     * old at most.
+     * @return Recent results.
+     */
+    public ResultsSnapshot getResults() {
+        return results;
+    }
+
+    /**
+     * Stops accepting votes and closes every connection. Batches already being counted are
+     * finished before this returns, batches still queued are dropped, and no more replies are sent.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        refresher.interrupt();
+        for (Thread worker: workers) {
+            worker.interrupt();
+        }
+        try {
+            for (Thread worker: workers) {
+                worker.join();
+            }
+            refresher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // The selector thread: accepts connections, reads commands and writes replies
+    private void serve() {
+        try {
+            while (!closed) {
+                selector.select();
+                for (Connection connection; (connection = counted.poll()) != null;) {
+                    answered(connection);
+                }
+                while (!waiting.isEmpty() && submissions.offer(waiting.peek())) {
+                    waiting.poll();
+                }
+                Iterator < SelectionKey > keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(connection);
+                        }
+                    } catch (IOException e) {
+                        disconnect(connection); // The client went away
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Vote gateway stopped: " + e);
+        } finally {
+            closed = true;
+            for (SelectionKey key: selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                    // Closing anyway
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+    }
+
+    // A worker: counts batches until the gateway closes
+    private void count() {
+        try {
+            while (!closed) {
+                Connection connection = submissions.take();
+                submit(connection);
+                counted.add(connection);
+                selector.wakeup();
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    // The refresher: rebuilds what queries are answered with until the gateway closes
+    private void refreshResults() {
+        try {
+            while (!closed) {
+                Thread.sleep(RESULTS_REFRESH_MILLIS);
+                try {
+                    refresh();
+                } catch (RuntimeException e) {
+                    // Queries keep getting the last rendering until one succeeds again
+                    System.err.println("Vote gateway could not refresh the results: " + e);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    // Takes a snapshot and renders the replies to RESULTS, in every format, and to METRICS
+    private void refresh() {
+        ResultsSnapshot current = votingService.snapshot();
+        byte[][] rendered = new byte[ReportFormat.values().length][];
+        for (ReportFormat format: ReportFormat.values()) {
+            StringBuilder report = new StringBuilder();
+            try {
+                ResultsReporter.render(current, format, report);
+            } catch (IOException e) {
+                throw new AssertionError(e); // A StringBuilder never throws
+            }
+            rendered[format.ordinal()] = report.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        StringBuilder text = new StringBuilder();
+        try {
+            votingService.getMetrics().writeTo(text);
+        } catch (IOException e) {
+            throw new AssertionError(e); // A StringBuilder never throws
+        }
+        results = current;
+        reports = rendered;
+        metrics = text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Counts a connection's batch. submitVotes checks every vote before it counts any, so when it
+    // throws, nothing is counted yet and the votes are retried one by one; only those that fail
+    // again are left without a result, and their errors are answered instead.
+    private void submit(Connection connection) {
+        VoteBatch batch = connection.batch;
+        try {
+            votingService.submitVotes(batch);
+            return;
+        } catch (RuntimeException e) {
+            // Find the votes to blame below
+        }
+        if (connection.single == null) {
+            connection.single = new VoteBatch(1);
+        }
+        VoteBatch single = connection.single;
+        for (int i = 0; i < batch.size(); i++) {
+            single.add(batch.getStudentId(i), batch.getQuestionIndex(i), batch.getAnswer(i));
+            try {
+                votingService.submitVotes(single);
+                batch.setResult(i, single.getResult(0));
+            } catch (RuntimeException e) {
+                batch.setResult(i, null);
+                connection.errors[i] = e.getMessage();
+            }
+            single.clear();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connections++;
+    }
+
+    private void read(Connection connection) throws IOException {
+        if (connection.channel.read(connection.in) < 0) {
+            connection.ending = true; // No more commands, but the replies still go out
+        }
+        parse(connection);
+        write(connection);
+    }
+
+    private void write(Connection connection) throws IOException {
+        ByteBuffer out = connection.out;
+        if (out.position() > 0) {
+            out.flip();
+            connection.channel.write(out);
+            out.compact();
+        }
+        if (!connection.busy && out.position() < MAX_UNSENT_BYTES && connection.in.position() > 0) {
+            parse(connection); // Lines held back while the replies were piling up
+            if (out.position() > 0) {
+                out.flip();
+                connection.channel.write(out);
+                out.compact();
+            }
+        }
+        if (connection.ending && !connection.busy && out.position() == 0) {
+            disconnect(connection);
+            return;
+        }
+        updateInterest(connection);
+    }
+
+    // Sends the replies of a counted batch and carries on with the connection's next lines
+    private void answered(Connection connection) {
+        connection.busy = false;
+        if (!connection.channel.isOpen()) {
+            connection.batch.clear();
+            return;
+        }
+        VoteBatch batch = connection.batch;
+        for (int i = 0; i < batch.size(); i++) {
+            ParsedAnswer result = batch.getResult(i);
+            if (result == null) {
+                connection.append(("ERR " + connection.errors[i] + "\n").getBytes(StandardCharsets.UTF_8));
+                connection.errors[i] = null;
+            } else {
+                connection.append(result.isValid() ? OK : connection.rejection(result.getRejection()));
+            }
+        }
+        batch.clear();
+        try {
+            parse(connection);
+            write(connection);
+        } catch (IOException e) {
+            disconnect(connection);
+        }
+    }
+
+    /**
+     * Works through the complete lines read from a connection, and the unfinished last one once
+     * the client has closed. Votes are added to its batch; any other line is answered once the
+     * votes before it are, so replies stay in order. Stops when the batch is full or a command has
+     * to wait for it, and hands the batch over.
+     */
+    private void parse(Connection connection) {
+        if (connection.busy) {
+            return;
+        }
+        byte[] bytes = connection.in.array();
+        int end = connection.in.position();
+        int lineStart = 0;
+        boolean partial = false;
+        while (connection.batch.size() < MAX_BATCH && connection.out.position() < MAX_UNSENT_BYTES
+            && !connection.quit) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && bytes[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            if (lineEnd == end && (!connection.ending || lineEnd == lineStart)) {
+                partial = true; // The rest of the line has not arrived yet
+                break;
+            }
+            int contentEnd = lineEnd > lineStart && bytes[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+            if (!vote(connection, bytes, lineStart, contentEnd)) {
+                if (connection.batch.size() > 0) {
+                    break; // Answered once the votes before it are
+                }
+                command(connection, new String(bytes, lineStart, contentEnd - lineStart, StandardCharsets.UTF_8).trim());
+            }
+            lineStart = Math.min(lineEnd + 1, end); // The client's last line may have no newline
+        }
+
+        // Keep the unparsed bytes at the start of the buffer
+        System.arraycopy(bytes, lineStart, bytes, 0, end - lineStart);
+        connection.in.position(end - lineStart);
+        if (partial && !connection.in.hasRemaining()) {
+            connection.append(("ERR line longer than " + READ_BUFFER_BYTES + " bytes\n").getBytes(StandardCharsets.US_ASCII));
+            connection.in.clear();
+            connection.ending = true;
+        }
+        if (connection.quit) {
+            connection.in.clear();
+            connection.ending = true;
+        }
+
+        if (connection.batch.size() > 0) {
+            connection.busy = true;
+            votesReceived.add(connection.batch.size());
+            if (!waiting.isEmpty() || !submissions.offer(connection)) {
+                waiting.add(connection);
+                throttled.increment();
+            }
+        }
+    }
+
+    // Adds the line to the batch if it is a well-formed vote
+    private boolean vote(Connection connection, byte[] bytes, int start, int end) {
+        if (end - start < 5 || bytes[start] != 'V' || bytes[start + 1] != 'O' || bytes[start + 2] != 'T'
+            || bytes[start + 3] != 'E' || bytes[start + 4] != ' ') {
+            return false;
+        }
+        int idStart = skipSpaces(bytes, start + 5, end);
+        int idEnd = idStart;
+        while (idEnd < end && bytes[idEnd] != ' ') {
+            idEnd++;
+        }
+        int numberStart = skipSpaces(bytes, idEnd, end);
+        int question = 0;
+        int numberEnd = numberStart;
+        while (numberEnd < end && bytes[numberEnd] >= '0' && bytes[numberEnd] <= '9' && question <= questionCount) {
+            question = question * 10 + bytes[numberEnd++] - '0';
+        }
+        if (idEnd == idStart || numberEnd == numberStart || numberEnd == end || bytes[numberEnd] != ' '
+            || question < 1 || question > questionCount) {
+            return false;
+        }
+        int answerStart = numberEnd + 1;
+        String studentId = new String(bytes, idStart, idEnd - idStart, StandardCharsets.UTF_8);
+        String answer = new String(bytes, answerStart, end - answerStart, StandardCharsets.UTF_8);
+        connection.batch.add(studentId, question - 1, answer);
+        return true;
+    }
+
+    private static int skipSpaces(byte[] bytes, int position, int end) {
+        while (position < end && bytes[position] == ' ') {
+            position++;
+        }
+        return position;
+    }
+
+    // Answers a line that is not a vote
+    private void command(Connection connection, String line) {
+        String[] words = line.split("\\s+");
+        switch (words[0]) {
+            case "RESULTS":
+                ReportFormat format;
+                try {
+                    format = words.length > 1 ? ReportFormat.parse(words[1]) : ReportFormat.TEXT;
+                } catch (IllegalArgumentException e) {
+                    connection.append(("ERR " + e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+                    break;
+                }
+                connection.append(reports[format.ordinal()]);
+                connection.append(END);
+                break;
+            case "QUESTIONS":
+                connection.append(questionDefinitions);
+                connection.append(END);
+                break;
+            case "METRICS":
+                connection.append(metrics);
+                connection.append(END);
+                break;
+            case "STATS":
+                connection.append(String.format("STATS connections=%d votes=%d throttled=%d%n",
+                    connections, votesReceived.sum(), throttled.sum()).getBytes(StandardCharsets.US_ASCII));
+                break;
+            case "QUIT":
+                connection.quit = true;
+                break;
+            case "":
+                connection.append("ERR empty line\n".getBytes(StandardCharsets.US_ASCII));
+                break;
+            case "VOTE":
+                connection.append(("ERR expected VOTE <studentId> <question 1-" + questionCount + "> <answer>\n")
+                    .getBytes(StandardCharsets.UTF_8));
+                break;
+            default:
+                connection.append(("ERR unknown command " + words[0] + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void updateInterest(Connection connection) {
+        if (!connection.key.isValid()) {
+            return;
+        }
+        int interest = 0;
+        if (!connection.busy && !connection.ending && connection.out.position() < MAX_UNSENT_BYTES
+            && connection.in.hasRemaining()) {
+            interest |= SelectionKey.OP_READ;
+        }
+        if (connection.out.position() > 0) {
+            interest |= SelectionKey.OP_WRITE;
+        }
+        connection.key.interestOps(interest);
+    }
+
+    private void disconnect(Connection connection) {
+        if (!connection.channel.isOpen()) {
+            return;
+        }
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // Gone either way
+        }
+        connections--;
+    }
+
+    // The questions as a definition file, so clients can learn the option codes
+    private static byte[] definitionsOf(List < Question > questions) {
+        StringBuilder definitions = new StringBuilder();
+        for (Question question: questions) {
+            definitions.append(question.isMultipleChoice() ? "multiple: " : "single: ")
+                .append(question.getQuestionText()).append('\n');
+            for (String option: question.getOptions()) {
+                definitions.append("    ").append(option).append('\n');
+            }
+        }
+        return definitions.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * One client. Only the selector thread touches it, except for the batch and what goes with
+     * it, which belong to a worker while busy is set.
+     */
+    private static final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_BYTES); // Unparsed bytes from position 0
+        ByteBuffer out = ByteBuffer.allocate(8192); // Unsent replies from position 0
+        final VoteBatch batch = new VoteBatch(MAX_BATCH);
+        final String[] errors = new String[MAX_BATCH]; // Why a vote without a result failed
+        VoteBatch single; // For retrying the votes of a failed batch one by one
+        final byte[][] rejections = new byte[ParsedAnswer.Rejection.values().length][];
+        boolean busy; // The batch is queued or being counted
+        boolean quit; // QUIT was received
+        boolean ending; // Close once the replies are sent
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void append(byte[] bytes) {
+            if (out.remaining() < bytes.length) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes.length));
+                out.flip();
+                grown.put(out);
+                out = grown;
+            }
+            out.put(bytes);
+        }
+
+        byte[] rejection(ParsedAnswer.Rejection rejection) {
+            byte[] reply = rejections[rejection.ordinal()];
+            if (reply == null) {
+                reply = ("REJECTED " + rejection + "\n").getBytes(StandardCharsets.US_ASCII);
+                rejections[rejection.ordinal()] = reply;
+            }
+            return reply;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load-test client of a VoteGateway: pushes the votes of a WorkloadProfile through as many
+ * connections as asked, as fast as the gateway takes them, while one more connection keeps
+ * asking for the results, to show that polling the results does not hold up the voters.
+ *
+ *     java VoteGatewayLoadTest <port> <students> [connections] [seed] [host]
+ *
+ * connections  how many connections vote at once (default 4); student i votes on connection i mod connections
+ * seed         seed of the workload (default 1); the votes are the same for the same seed
+ * host         where the gateway runs (default localhost)
+ *
+ * The questions are fetched from the gateway. Every connection writes its votes without waiting
+ * for the replies, which a second thread reads back, so the gateway's backpressure is the only
+ * thing slowing a connection down. At the end the client prints the votes per second, how many
+ * were accepted and rejected, and the latency of the result queries.
+ */
+public class VoteGatewayLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java VoteGatewayLoadTest <port> <students> [connections] [seed] [host]");
+            return;
+        }
+        int port = Integer.parseInt(args[0]);
+        int students = Integer.parseInt(args[1]);
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        InetAddress host = args.length > 4 ? InetAddress.getByName(args[4]) : InetAddress.getLoopbackAddress();
+
+        try (Socket control = new Socket(host, port)) {
+            BufferedReader replies = new BufferedReader(new InputStreamReader(control.getInputStream(), StandardCharsets.UTF_8));
+            Writer commands = new OutputStreamWriter(control.getOutputStream(), StandardCharsets.UTF_8);
+
+            List < Question > questions = QuestionCatalogue.parse(new StringReader(query(commands, replies, "QUESTIONS"))).getQuestions();
+            WorkloadProfile profile = WorkloadProfile.defaults(seed, students);
+            WorkloadProfile.Generator workload = profile.forQuestions(questions);
+            System.out.println("Sending " + profile + " over " + connections + " connections to " + host.getHostAddress() + ":" + port);
+
+            LongAdder sent = new LongAdder();
+            LongAdder accepted = new LongAdder();
+            LongAdder rejected = new LongAdder();
+            LongAdder errors = new LongAdder();
+            List < Thread > threads = new ArrayList < > ();
+            long start = System.nanoTime();
+            for (int c = 0; c < connections; c++) {
+                Socket socket = new Socket(host, port);
+                socket.setTcpNoDelay(true);
+                int connection = c;
+                threads.add(start(() -> {
+                    // Not closed: that would close the socket before the replies are read
+                    OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 1 << 16);
+                    for (int student = connection; student < students; student += connections) {
+                        sent.add(workload.votesOf(student, (studentId, questionIndex, answer) -> {
+                            try {
+                                out.write(("VOTE " + studentId + " " + (questionIndex + 1) + " " + answer + "\n")
+                                    .getBytes(StandardCharsets.UTF_8));
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }));
+                    }
+                    out.flush();
+                    socket.shutdownOutput(); // The gateway closes once every reply is sent
+                }, "load-writer-" + c));
+                threads.add(start(() -> {
+                    try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), 1 << 16)) {
+                        for (String reply; (reply = in.readLine()) != null;) {
+                            if (reply.equals("OK")) {
+                                accepted.increment();
+                            } else if (reply.startsWith("REJECTED")) {
+                                rejected.increment();
+                            } else {
+                                errors.increment();
+                            }
+                        }
+                    } finally {
+                        socket.close();
+                    }
+                }, "load-reader-" + c));
+            }
+
+            // Poll the results for as long as the votes are going in
+            LatencyHistogram queryLatency = new LatencyHistogram();
+            long queries = 0;
+            while (threads.stream().anyMatch(Thread::isAlive)) {
+                long queryStart = System.nanoTime();
+                query(commands, replies, "RESULTS csv");
+                queryLatency.record(System.nanoTime() - queryStart);
+                queries++;
+                Thread.sleep(10);
+            }
+            for (Thread thread: threads) {
+                thread.join();
+            }
+            long elapsedNanos = System.nanoTime() - start;
+
+            long votes = sent.sum();
+            System.out.printf("Sent %d votes in %d ms (%.0f votes/s)%n", votes, elapsedNanos / 1_000_000, votes * 1e9 / Math.max(1, elapsedNanos));
+            System.out.printf("Accepted %d, rejected %d, errors %d, unanswered %d%n",
+                accepted.sum(), rejected.sum(), errors.sum(), votes - accepted.sum() - rejected.sum() - errors.sum());
+            long[] latencies = queryLatency.copyCounts();
+            System.out.printf("%d result queries: p50 %.2f ms, p99 %.2f ms%n", queries,
+                LatencyHistogram.valueAtPercentile(latencies, 50) / 1e6, LatencyHistogram.valueAtPercentile(latencies, 99) / 1e6);
+            commands.write("STATS\n");
+            commands.flush();
+            System.out.println(replies.readLine());
+        }
+    }
+
+    // Sends a query and returns its reply, without the closing "."
+    private static String query(Writer commands, BufferedReader replies, String command) throws IOException {
+        commands.write(command + "\n");
+        commands.flush();
+        StringBuilder reply = new StringBuilder();
+        for (String line; (line = replies.readLine()) != null && !line.equals(".");) {
+            if (line.startsWith("ERR")) {
+                throw new IOException(command + ": " + line);
+            }
+            reply.append(line).append('\n');
+        }
+        return reply.toString();
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    private static Thread start(Task task, String name) {
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } catch (IOException | UncheckedIOException e) {
+                System.err.println(Thread.currentThread().getName() + ": " + e);
+            }
+        }, name);
+        thread.start();
+        return thread;
+    }
+}
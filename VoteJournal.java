@@ -0,0 +1,504 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only log of every accepted ballot, so a VotingService can rebuild its results after the
+ * JVM exits. Records are fixed width and written straight into a memory-mapped file.
+ *
+ * Record layout (48 bytes, little endian):
+ *   0  long  sequence, 1-based; 0 marks a slot that was never written
+ *   8  int   question index, in configuration order
+ *  12  int   option index
+ *  16  short part of the ballot this record holds (0-based)
+ *  18  short number of records in the ballot: one per chosen option, then any ID extensions
+ *  20  byte  length of the student ID in bytes, or LONG_ID when it does not fit in one record
+ *  24  24 bytes student ID, UTF-8, zero padded
+ *
+ * A student ID of up to 24 bytes is repeated in every record of its ballot. A longer one keeps
+ * its first 24 bytes there and the rest follows in extension records at the end of the ballot:
+ * option index -1, the length of the piece they hold at 20 and the piece at 24.
+ *
+ * A writer reserves sequence numbers for all records of its ballot with one atomic add, so any
+ * number of threads can append at once. The student ID is encoded as UTF-8 straight into the
+ * mapped records, so appending allocates nothing. The sequence field of each record is written
+ * last, with release semantics, so a record only counts once it is complete. Durability is batched (group commit):
+ * a background thread forces the newly written part of the file to disk every flush interval,
+ * and flush() forces it on demand. If writing a ballot fails after its records were reserved,
+ * the records left are published as dead (no records in the ballot), so they never hold up the
+ * flusher or recovery.
+ *
+ * Recovery replays records in sequence order, skipping dead records and the ballots they cut
+ * short, and stops at the first slot that was never completed; anything after such a gap is
+ * cleared, since it was never forced in order.
+ * Concurrent ballots from the same student for the same question are not ordered with each
+ * other, so replay keeps whichever of those the journal holds last.
+ */
+class VoteJournal implements AutoCloseable {
+
+    static final int RECORD_BYTES = 48;
+
+    // Student ID bytes one record holds
+    static final int ID_BYTES = 24;
+
+    // Length of a student ID stored partly in extension records
+    private static final int LONG_ID = 0xFF;
+
+    private static final long MAGIC = 0x4C4E4A45544F5649L; // "IVOTEJNL"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int RECORDS_PER_SEGMENT = 1 << 20; // 48 MB per mapped segment
+    private static final long SEGMENT_BYTES = (long) RECORDS_PER_SEGMENT * RECORD_BYTES;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /** Receives the ballots found in the journal during recovery. */
+    interface Replay {
+        /**
+         * @param studentID The student who cast the ballot.
+         * @param questionIndex The question, in configuration order.
+         * @param options The chosen option indexes.
+         * @param optionCount How many entries of options are used.
+         */
+        void ballot(String studentID, int questionIndex, int[] options, int optionCount);
+    }
+
+    private final FileChannel channel;
+    private final AtomicLong nextSequence = new AtomicLong(1);
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private final Object mapLock = new Object();
+
+    // Everything below this sequence has been forced to disk
+    private long forcedSequence = 1;
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    /**
+     * Opens (or creates) a journal, replays every complete ballot in it and starts the flusher.
+     * @param file The journal file.
+     * @param flushIntervalMillis How often newly written records are forced to disk.
+     * @param replay Receives the recovered ballots, in journal order.
+     * @throws IOException if the file cannot be opened or is not a vote journal.
+     */
+    public VoteJournal(Path file, long flushIntervalMillis, Replay replay) throws IOException {
+        this(file, flushIntervalMillis, 1, replay);
+    }
+
+    /**
+     * Opens (or creates) a journal and replays only the ballots from a given sequence on, e.g.
+     * those a checkpoint does not hold yet (see checkpointSequence()).
+     * @param file The journal file.
+     * @param flushIntervalMillis How often newly written records are forced to disk.
+     * @param fromSequence The first record to replay; 1 replays everything.
+     * @param replay Receives the recovered ballots, in journal order.
+     * @throws IOException if the file cannot be opened, is not a vote journal, or holds fewer
+     *         records than fromSequence asks to skip.
+     */
+    public VoteJournal(Path file, long flushIntervalMillis, long fromSequence, Replay replay) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            readOrWriteHeader();
+            recover(replay, Math.max(1, fromSequence));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        forcedSequence = nextSequence.get();
+
+        flusher = new Thread(() -> {
+            while (!closed) {
+                try {
+                    Thread.sleep(flushIntervalMillis);
+                    flush();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Vote journal flush failed: " + e);
+                }
+            }
+        }, "vote-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Appends one ballot: one record per chosen option, plus extensions for a long student ID.
+     * @param studentID The student.
+     * @param questionIndex The question, in configuration order.
+     * @param ballot The accepted answer.
+     * @throws java.io.UncheckedIOException if the file cannot grow to hold the ballot. Its records
+     *         are then marked dead, so the records after them still count.
+     */
+    public void append(CharSequence studentID, int questionIndex, ParsedAnswer ballot) {
+        int idBytes = utf8Length(studentID);
+        int records = recordsFor(ballot, idBytes);
+        long sequence = nextSequence.getAndAdd(records);
+        try {
+            write(sequence, questionIndex, ballot, studentID, idBytes);
+        } catch (RuntimeException e) {
+            markDead(sequence, sequence + records);
+            throw e;
+        }
+    }
+
+    /**
+     * Appends every accepted ballot of a batch, reserving the records for all of them at once.
+     * @param batch A batch whose votes have been parsed; rejected votes are skipped.
+     * @throws java.io.UncheckedIOException if the file cannot grow to hold the batch. The records
+     *         not written yet are then marked dead, so the records after them still count.
+     */
+    public void append(VoteBatch batch) {
+        long records = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.isAccepted(i)) {
+                records += recordsFor(batch.getResult(i), utf8Length(batch.getStudentId(i)));
+            }
+        }
+        long sequence = nextSequence.getAndAdd(records);
+        long end = sequence + records;
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.isAccepted(i)) {
+                    ParsedAnswer ballot = batch.getResult(i);
+                    String studentID = batch.getStudentId(i);
+                    int idBytes = utf8Length(studentID);
+                    write(sequence, batch.getQuestionIndex(i), ballot, studentID, idBytes);
+                    sequence += recordsFor(ballot, idBytes);
+                }
+            }
+        } catch (RuntimeException e) {
+            markDead(sequence, end);
+            throw e;
+        }
+    }
+
+    // Records a ballot takes: one per chosen option, plus one per further 24 bytes of a long ID
+    private static int recordsFor(ParsedAnswer ballot, int idBytes) {
+        return ballot.getSelectedCount() + extensionsFor(idBytes);
+    }
+
+    private static int extensionsFor(int idBytes) {
+        return idBytes > ID_BYTES ? (idBytes - 1) / ID_BYTES : 0;
+    }
+
+    // Length of the ID in UTF-8, as String.getBytes would encode it: a lone surrogate becomes '?'
+    static int utf8Length(CharSequence id) {
+        int length = id.length();
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(id.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return bytes;
+    }
+
+    // Writes one ballot into the records reserved for it, starting at sequence, and publishes
+    // them once they are all complete
+    private void write(long sequence, int questionIndex, ParsedAnswer ballot, CharSequence id, int idBytes) {
+        int optionRecords = ballot.getSelectedCount();
+        int extensions = extensionsFor(idBytes);
+        int parts = optionRecords + extensions;
+        if (parts > 0xFFFF) {
+            throw new IllegalArgumentException("A ballot of " + parts + " records does not fit in the journal");
+        }
+        int idLength = idBytes > ID_BYTES ? LONG_ID : idBytes;
+        int part = 0;
+        if (ballot.isWide()) {
+            long[] words = ballot.wideSelection();
+            for (int w = 0; w < words.length; w++) {
+                for (long bits = words[w]; bits != 0; bits &= bits - 1) {
+                    write(sequence + part, questionIndex, (w << 6) + Long.numberOfTrailingZeros(bits), part++, parts, idLength);
+                }
+            }
+        } else {
+            for (long bits = ballot.getSelection(); bits != 0; bits &= bits - 1) {
+                write(sequence + part, questionIndex, Long.numberOfTrailingZeros(bits), part++, parts, idLength);
+            }
+        }
+        for (int extension = 1; extension <= extensions; extension++) {
+            write(sequence + part, questionIndex, -1, part++, parts, Math.min(ID_BYTES, idBytes - extension * ID_BYTES));
+        }
+
+        putId(sequence, optionRecords, id);
+        for (int record = 1; record < optionRecords; record++) { // Every option record repeats the start of the ID
+            ByteBuffer from = segment((int) ((sequence - 1) / RECORDS_PER_SEGMENT));
+            ByteBuffer to = segment((int) ((sequence + record - 1) / RECORDS_PER_SEGMENT));
+            int fromOffset = (int) ((sequence - 1) % RECORDS_PER_SEGMENT) * RECORD_BYTES + 24;
+            int toOffset = (int) ((sequence + record - 1) % RECORDS_PER_SEGMENT) * RECORD_BYTES + 24;
+            for (int i = 0; i < ID_BYTES; i += 8) {
+                to.putLong(toOffset + i, from.getLong(fromOffset + i));
+            }
+        }
+
+        for (part = 0; part < parts; part++) {
+            long published = sequence + part;
+            ByteBuffer segment = segment((int) ((published - 1) / RECORDS_PER_SEGMENT));
+            LONGS.setRelease(segment, (int) ((published - 1) % RECORDS_PER_SEGMENT) * RECORD_BYTES, published); // Publish the record last
+        }
+    }
+
+    // Encodes the ID as UTF-8 into the ballot's records: the first ID_BYTES bytes into its first
+    // record, the rest into the extension records after its option records
+    private void putId(long sequence, int optionRecords, CharSequence id) {
+        int length = id.length();
+        int position = 0;
+        for (int i = 0; i < length; i++) {
+            int c = id.charAt(i);
+            if (c < 0x80) {
+                putIdByte(sequence, optionRecords, position++, c);
+            } else if (c < 0x800) {
+                putIdByte(sequence, optionRecords, position++, 0xC0 | c >>> 6);
+                putIdByte(sequence, optionRecords, position++, 0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate((char) c) && i + 1 < length && Character.isLowSurrogate(id.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint((char) c, id.charAt(++i));
+                putIdByte(sequence, optionRecords, position++, 0xF0 | codePoint >>> 18);
+                putIdByte(sequence, optionRecords, position++, 0x80 | codePoint >>> 12 & 0x3F);
+                putIdByte(sequence, optionRecords, position++, 0x80 | codePoint >>> 6 & 0x3F);
+                putIdByte(sequence, optionRecords, position++, 0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate((char) c)) {
+                putIdByte(sequence, optionRecords, position++, '?');
+            } else {
+                putIdByte(sequence, optionRecords, position++, 0xE0 | c >>> 12);
+                putIdByte(sequence, optionRecords, position++, 0x80 | c >>> 6 & 0x3F);
+                putIdByte(sequence, optionRecords, position++, 0x80 | c & 0x3F);
+            }
+        }
+    }
+
+    private void putIdByte(long sequence, int optionRecords, int position, int value) {
+        long record = position < ID_BYTES ? sequence : sequence + optionRecords + position / ID_BYTES - 1;
+        ByteBuffer segment = segment((int) ((record - 1) / RECORDS_PER_SEGMENT));
+        segment.put((int) ((record - 1) % RECORDS_PER_SEGMENT) * RECORD_BYTES + 24 + position % ID_BYTES, (byte) value);
+    }
+
+    // Publishes every reserved record from first up to end that is not written yet as dead
+    private void markDead(long first, long end) {
+        for (long sequence = first; sequence < end; sequence++) {
+            try {
+                if (!isPublished(sequence)) {
+                    ByteBuffer segment = segment((int) ((sequence - 1) / RECORDS_PER_SEGMENT));
+                    int offset = (int) ((sequence - 1) % RECORDS_PER_SEGMENT) * RECORD_BYTES;
+                    segment.putInt(offset + 8, -1);
+                    segment.putInt(offset + 12, -1);
+                    segment.putInt(offset + 16, 0); // Part 0 of 0 records
+                    LONGS.setRelease(segment, offset, sequence);
+                }
+            } catch (RuntimeException e) {
+                // The slot cannot even be mapped; the journal ends before it in any case
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return How many records the journal holds.
+     */
+    public long size() {
+        return nextSequence.get() - 1;
+    }
+
+    /**
+     * Finds where a checkpoint taken now should resume the journal: the first ballot that is not
+     * completely forced to disk yet. Every ballot before it is complete and durable, so a
+     * checkpoint never points past what the journal still holds after a power loss. Call flush()
+     * first to bring it up to date.
+     * @return The sequence of that ballot's first record.
+     */
+    public synchronized long checkpointSequence() {
+        long end = forcedSequence;
+        if (end > 1) { // Back up to the start of a ballot whose last records are still being written
+            ByteBuffer segment = segment((int) ((end - 2) / RECORDS_PER_SEGMENT));
+            int offset = (int) ((end - 2) % RECORDS_PER_SEGMENT) * RECORD_BYTES;
+            int part = segment.getShort(offset + 16) & 0xFFFF;
+            int parts = segment.getShort(offset + 18) & 0xFFFF;
+            if (parts != 0 && part != parts - 1) { // Dead records (no parts) end nothing
+                end -= part + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Forces every completely written record to disk. The flusher calls this on its interval.
+     * @throws IOException if forcing fails.
+     */
+    public synchronized void flush() throws IOException {
+        // Only the complete prefix is forced; a slot still being written waits for the next flush
+        long end = forcedSequence;
+        long reserved = nextSequence.get();
+        while (end < reserved && isPublished(end)) {
+            end++;
+        }
+        MappedByteBuffer[] mapped = segments;
+        for (long first = forcedSequence; first < end; ) {
+            int segment = (int) ((first - 1) / RECORDS_PER_SEGMENT);
+            long segmentEnd = Math.min(end, (long) (segment + 1) * RECORDS_PER_SEGMENT + 1);
+            int from = (int) ((first - 1) % RECORDS_PER_SEGMENT) * RECORD_BYTES;
+            mapped[segment].force(from, (int) (segmentEnd - first) * RECORD_BYTES);
+            first = segmentEnd;
+            forcedSequence = first;
+        }
+    }
+
+    /**
+     * Stops the flusher and forces the remaining records to disk.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        flusher.interrupt();
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private boolean isPublished(long sequence) {
+        ByteBuffer segment = segment((int) ((sequence - 1) / RECORDS_PER_SEGMENT));
+        return (long) LONGS.getAcquire(segment, (int) ((sequence - 1) % RECORDS_PER_SEGMENT) * RECORD_BYTES) == sequence;
+    }
+
+    // Writes the fields of one record and clears its ID bytes, without publishing it; option
+    // records hold the start of the ID, extensions (option -1) the next piece of a long one
+    private void write(long sequence, int questionIndex, int option, int part, int parts, int idLength) {
+        ByteBuffer segment = segment((int) ((sequence - 1) / RECORDS_PER_SEGMENT));
+        int offset = (int) ((sequence - 1) % RECORDS_PER_SEGMENT) * RECORD_BYTES;
+        segment.putInt(offset + 8, questionIndex);
+        segment.putInt(offset + 12, option);
+        segment.putShort(offset + 16, (short) part);
+        segment.putShort(offset + 18, (short) parts);
+        segment.putInt(offset + 20, idLength); // The length byte, then three bytes of padding
+        for (int i = 0; i < ID_BYTES; i += 8) {
+            segment.putLong(offset + 24 + i, 0);
+        }
+    }
+
+    // Reads every complete ballot from fromSequence on back, in order, and clears whatever follows the first gap
+    private void recover(Replay replay, long fromSequence) throws IOException {
+        long records = Math.max(0, (channel.size() - HEADER_BYTES) / RECORD_BYTES);
+        if (fromSequence > 1 && (fromSequence - 1 > records || !isPublished(fromSequence - 1))) {
+            throw new IOException("The journal ends before record " + fromSequence + ", where replay should start");
+        }
+        int[] options = new int[16];
+        int optionCount = 0;
+        java.io.ByteArrayOutputStream id = new java.io.ByteArrayOutputStream(ID_BYTES);
+        long sequence = fromSequence;
+        long ballotStart = fromSequence;
+
+        for (; sequence <= records; sequence++) {
+            ByteBuffer segment = segment((int) ((sequence - 1) / RECORDS_PER_SEGMENT));
+            int offset = (int) ((sequence - 1) % RECORDS_PER_SEGMENT) * RECORD_BYTES;
+            if ((long) LONGS.getAcquire(segment, offset) != sequence) {
+                break;
+            }
+            int part = segment.getShort(offset + 16) & 0xFFFF;
+            int parts = segment.getShort(offset + 18) & 0xFFFF;
+            if (parts == 0) { // Dead: drops the ballot it cut short, if any
+                ballotStart = sequence + 1;
+                continue;
+            }
+            if (part == 0) {
+                ballotStart = sequence;
+                optionCount = 0;
+                id.reset();
+            } else if (sequence - ballotStart != part) {
+                continue; // The rest of a ballot whose start was dropped
+            }
+            int option = segment.getInt(offset + 12);
+            int length = segment.get(offset + 20) & 0xFF;
+            if (option >= 0) {
+                if (optionCount == options.length) {
+                    options = java.util.Arrays.copyOf(options, optionCount * 2);
+                }
+                options[optionCount++] = option;
+                if (part == 0) {
+                    copyId(segment, offset, length == LONG_ID ? ID_BYTES : length, id);
+                }
+            } else {
+                copyId(segment, offset, length, id); // The next piece of a long ID
+            }
+            if (part == parts - 1) {
+                replay.ballot(new String(id.toByteArray(), StandardCharsets.UTF_8), segment.getInt(offset + 8), options, optionCount);
+                ballotStart = sequence + 1;
+            }
+        }
+
+        // A ballot cut short by a crash is dropped, and so is anything after the gap
+        nextSequence.set(ballotStart);
+        for (long stale = ballotStart; stale <= records; stale++) {
+            ByteBuffer segment = segment((int) ((stale - 1) / RECORDS_PER_SEGMENT));
+            int offset = (int) ((stale - 1) % RECORDS_PER_SEGMENT) * RECORD_BYTES;
+            if (segment.getLong(offset) != 0) {
+                segment.putLong(offset, 0);
+            }
+        }
+    }
+
+    private static void copyId(ByteBuffer segment, int offset, int length, java.io.ByteArrayOutputStream id) {
+        for (int i = 0; i < length; i++) {
+            id.write(segment.get(offset + 24 + i));
+        }
+    }
+
+    private void readOrWriteHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        if (channel.size() == 0) {
+            header.putLong(MAGIC).putInt(VERSION).putInt(RECORD_BYTES).flip();
+            channel.write(header.limit(HEADER_BYTES), 0);
+            return;
+        }
+        channel.read(header, 0);
+        header.flip();
+        if (header.limit() < 16 || header.getLong() != MAGIC || header.getInt() != VERSION || header.getInt() != RECORD_BYTES) {
+            throw new IOException("Not a version " + VERSION + " vote journal");
+        }
+    }
+
+    // Returns a mapped segment, mapping it (and growing the file) the first time it is needed
+    private MappedByteBuffer segment(int index) {
+        MappedByteBuffer[] mapped = segments;
+        if (index < mapped.length) {
+            return mapped[index];
+        }
+        synchronized (mapLock) {
+            mapped = segments;
+            if (index >= mapped.length) {
+                MappedByteBuffer[] grown = java.util.Arrays.copyOf(mapped, index + 1);
+                try {
+                    for (int i = mapped.length; i <= index; i++) {
+                        grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + i * SEGMENT_BYTES, SEGMENT_BYTES);
+                        grown[i].order(ByteOrder.LITTLE_ENDIAN);
+                    }
+                } catch (IOException e) {
+                    throw new java.io.UncheckedIOException("Could not map vote journal segment " + index, e);
+                }
+                segments = grown;
+                mapped = grown;
+            }
+            return mapped[index];
+        }
+    }
+}
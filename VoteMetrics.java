@@ -0,0 +1,150 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Always-on counters and latency histograms for a VotingService.
+ *
+ * Every vote updates exactly one counter (first ballot, replaced ballot, rejected as malformed,
+ * rejected as an unknown option) with an atomic add into this thread's stripe, the same layout
+ * OptionTally uses. Timing every vote would cost more than the vote itself, so only every
+ * SAMPLE_EVERY-th vote of a stripe is timed and recorded in its question's LatencyHistogram;
+ * percentiles from a sample that size are as good as from every vote.
+ *
+ * Nothing here locks. snapshot() reads the counters while votes keep coming, so the numbers of
+ * one snapshot can be a few votes apart from each other.
+ */
+final class VoteMetrics {
+
+    private static final VarHandle COUNTERS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    static final int SAMPLE_EVERY = 64;
+
+    // Counters within a stripe's cache line. Accepted votes are counted as either first or
+    // replaced ballots, so every vote costs exactly one atomic add.
+    private static final int FIRST = 0;
+    private static final int REPLACED = 1;
+    private static final int MALFORMED = 2;
+    private static final int UNKNOWN_OPTION = 3;
+    private static final int TICKS = 4; // Votes seen by the stripe, for sampling; not exact
+    private static final int LINE = 8;
+
+    private final long[] counters = new long[OptionTally.STRIPES * LINE];
+    private final List < LatencyHistogram > latencies = new CopyOnWriteArrayList < > ();
+    private volatile boolean enabled = true;
+
+    /**
+     * Adds a histogram for the next configured question.
+     */
+    public void addQuestion() {
+        latencies.add(new LatencyHistogram());
+    }
+
+    /**
+     * @param enabled false to stop counting and timing altogether, e.g. to measure the overhead.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Starts timing a vote if it is one of the sampled ones.
+     * @return The start time to pass to stopTimer(), or 0 if this vote is not timed.
+     */
+    public long startTimer() {
+        if (!enabled) {
+            return 0;
+        }
+        int cell = OptionTally.stripe() * LINE + TICKS;
+        long tick = counters[cell]++; // Racy on purpose: only decides which votes are sampled
+        return (tick & (SAMPLE_EVERY - 1)) == 0 ? System.nanoTime() : 0;
+    }
+
+    /**
+     * @param questionIndex The question the vote was for.
+     * @param start The value startTimer() returned.
+     */
+    public void stopTimer(int questionIndex, long start) {
+        if (start != 0) {
+            latencies.get(questionIndex).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @param replaced true if the vote replaced the student's earlier ballot.
+     */
+    public void accepted(boolean replaced) {
+        if (enabled) {
+            COUNTERS.getAndAdd(counters, OptionTally.stripe() * LINE + (replaced ? REPLACED : FIRST), 1L);
+        }
+    }
+
+    /**
+     * Counts several votes at once, for the batch path.
+     * @param accepted Votes counted.
+     * @param replaced Of those, votes that replaced an earlier ballot.
+     * @param malformed Votes rejected as malformed.
+     * @param unknownOption Votes rejected for naming an option that does not exist.
+     */
+    public void add(long accepted, long replaced, long malformed, long unknownOption) {
+        if (enabled) {
+            int row = OptionTally.stripe() * LINE;
+            COUNTERS.getAndAdd(counters, row + FIRST, accepted - replaced);
+            COUNTERS.getAndAdd(counters, row + REPLACED, replaced);
+            COUNTERS.getAndAdd(counters, row + MALFORMED, malformed);
+            COUNTERS.getAndAdd(counters, row + UNKNOWN_OPTION, unknownOption);
+        }
+    }
+
+    /**
+     * @param rejection Why the vote was rejected.
+     */
+    public void rejected(ParsedAnswer.Rejection rejection) {
+        if (enabled) {
+            int cell = OptionTally.stripe() * LINE + (rejection == ParsedAnswer.Rejection.MALFORMED ? MALFORMED : UNKNOWN_OPTION);
+            COUNTERS.getAndAdd(counters, cell, 1L);
+        }
+    }
+
+    /**
+     * @return The counters and latency histograms as they are now.
+     */
+    public MetricsSnapshot snapshot() {
+        long[] totals = new long[UNKNOWN_OPTION + 1];
+        for (int stripe = 0; stripe < OptionTally.STRIPES; stripe++) {
+            for (int counter = 0; counter < totals.length; counter++) {
+                totals[counter] += (long) COUNTERS.getOpaque(counters, stripe * LINE + counter);
+            }
+        }
+        long[][] histograms = new long[latencies.size()][];
+        for (int q = 0; q < histograms.length; q++) {
+            histograms[q] = latencies.get(q).copyCounts();
+        }
+        return new MetricsSnapshot(System.currentTimeMillis(), totals[FIRST] + totals[REPLACED], totals[REPLACED],
+            totals[MALFORMED], totals[UNKNOWN_OPTION], histograms);
+    }
+
+    /**
+     * @return Valid votes counted so far; cheaper than a full snapshot when nothing else is needed.
+     */
+    public long getAccepted() {
+        long accepted = 0;
+        for (int stripe = 0; stripe < OptionTally.STRIPES; stripe++) {
+            accepted += (long) COUNTERS.getOpaque(counters, stripe * LINE + FIRST);
+            accepted += (long) COUNTERS.getOpaque(counters, stripe * LINE + REPLACED);
+        }
+        return accepted;
+    }
+
+    /**
+     * @return Approximate heap used by the counters and histograms, in bytes.
+     */
+    public long memoryBytes() {
+        long bytes = 16L + counters.length * 8L;
+        for (LatencyHistogram histogram: latencies) {
+            bytes += histogram.memoryBytes();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,435 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Replays votes from a CSV or NDJSON stream (a file, stdin, a socket) into a VotingService as
+ * the bytes arrive, for loading vote exports of any size.
+ *
+ * Each line is one vote, in either form (they may even be mixed):
+ *   S0001,1,A              student ID, question number, answer
+ *   S0002,2,"A,C"          multiple choice answers with commas are quoted, or simply left last
+ *   {"studentId":"S0003","question":3,"answer":"1"}
+ * Question numbers start at 1, in configuration order. A CSV header line is skipped.
+ *
+ * The stream is read through a channel into one fixed buffer, and lines are parsed straight out
+ * of that buffer into reusable character fields that are handed to submitVote as they are.
+ * No String is made per line, and memory use does not depend on the size of the stream.
+ */
+class VoteStreamReader {
+
+    private static final int BUFFER_BYTES = 1 << 20; // Also the longest line accepted
+
+    private final VotingService votingService;
+    private final int questionCount;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+
+    // Fields of the current line, reused for every line
+    private final TextField studentId = new TextField();
+    private final TextField answer = new TextField();
+    private final TextField key = new TextField();
+    private int questionNumber;
+
+    private long lines;
+    private long accepted;
+    private long rejected;
+    private long malformed;
+
+    /**
+     * @param votingService The service receiving the votes; its questions must already be configured.
+     */
+    public VoteStreamReader(VotingService votingService) {
+        this.votingService = votingService;
+        this.questionCount = votingService.getQuestionCount();
+    }
+
+    /**
+     * Reads the whole stream, submitting every vote in it. Lines that cannot be parsed, name a
+     * question that does not exist or have a student ID longer than StudentRegistry accepts are
+     * skipped and counted as malformed.
+     * @param channel The stream to read; it is not closed.
+     * @throws IOException if reading fails.
+     */
+    public void read(ReadableByteChannel channel) throws IOException {
+        byte[] bytes = buffer.array();
+        buffer.clear();
+        boolean firstLine = true;
+        boolean skipping = false; // Inside a line that did not fit in the buffer
+        int scanned = 0; // Bytes at the start of the buffer already searched for a line break
+
+        for (;;) {
+            int read = channel.read(buffer);
+            int end = buffer.position();
+            if (read < 0) {
+                if (end > 0 && !skipping) {
+                    line(bytes, 0, end, firstLine);
+                }
+                return;
+            }
+
+            int lineStart = 0;
+            for (int i = scanned; i < end; i++) {
+                if (bytes[i] == '\n') {
+                    if (skipping) {
+                        skipping = false;
+                    } else {
+                        line(bytes, lineStart, i, firstLine);
+                        firstLine = false;
+                    }
+                    lineStart = i + 1;
+                }
+            }
+
+            // Keep the unfinished line for the next read
+            int rest = end - lineStart;
+            if (rest == BUFFER_BYTES) { // One line fills the whole buffer: give up on it
+                lines++;
+                malformed++;
+                skipping = true;
+                rest = 0;
+            } else if (skipping) {
+                rest = 0;
+            } else {
+                System.arraycopy(bytes, lineStart, bytes, 0, rest);
+            }
+            buffer.position(rest);
+            scanned = rest;
+        }
+    }
+
+    /**
+     * @return Lines holding a vote (blank lines and the header do not count).
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * @return Votes that were valid and counted.
+     */
+    public long getAccepted() {
+        return accepted;
+    }
+
+    /**
+     * @return Votes that were read but rejected by the question as an invalid answer.
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return Lines that could not be read as a vote at all.
+     */
+    public long getMalformed() {
+        return malformed;
+    }
+
+    // Parses and submits one line, without its line break
+    private void line(byte[] bytes, int start, int end, boolean firstLine) {
+        if (end > start && bytes[end - 1] == '\r') {
+            end--;
+        }
+        int first = skipSpace(bytes, start, end);
+        if (first == end) {
+            return; // Blank line
+        }
+        boolean parsed = bytes[first] == '{' ? parseJson(bytes, first, end) : parseCsv(bytes, first, end);
+        if (!parsed && firstLine && bytes[first] != '{') {
+            return; // A CSV header
+        }
+        lines++;
+        if (!parsed || questionNumber < 1 || questionNumber > questionCount
+            || studentId.length() > StudentRegistry.MAX_ID_LENGTH) { // The registry would throw on such an ID
+            malformed++;
+        } else if (votingService.submitVote(studentId, questionNumber - 1, answer)) {
+            accepted++;
+        } else {
+            rejected++;
+        }
+    }
+
+    // student,question,answer; the answer is either quoted or the rest of the line
+    private boolean parseCsv(byte[] bytes, int position, int end) {
+        position = csvField(bytes, position, end, studentId, false);
+        if (position < 0 || position >= end || bytes[position] != ',') {
+            return false;
+        }
+        position = csvField(bytes, position + 1, end, key, false);
+        if (position < 0 || position >= end || bytes[position] != ',' || !parseQuestion(key)) {
+            return false;
+        }
+        position = csvField(bytes, position + 1, end, answer, true);
+        return position == end;
+    }
+
+    // Reads one CSV field into the target and returns the position after it, or -1 if it is broken
+    private static int csvField(byte[] bytes, int position, int end, TextField target, boolean restOfLine) {
+        target.clear();
+        position = skipSpace(bytes, position, end);
+        if (position < end && bytes[position] == '"') {
+            int i = position + 1;
+            int chunkStart = i;
+            for (;;) {
+                if (i >= end) {
+                    return -1; // No closing quote
+                }
+                if (bytes[i] == '"') {
+                    target.appendUtf8(bytes, chunkStart, i);
+                    if (i + 1 < end && bytes[i + 1] == '"') { // "" is a quote inside the field
+                        target.append('"');
+                        i += 2;
+                        chunkStart = i;
+                        continue;
+                    }
+                    return skipSpace(bytes, i + 1, end);
+                }
+                i++;
+            }
+        }
+        int stop = position;
+        while (stop < end && (restOfLine || bytes[stop] != ',')) {
+            stop++;
+        }
+        int trimmed = stop;
+        while (trimmed > position && (bytes[trimmed - 1] & 0xFF) <= ' ') {
+            trimmed--;
+        }
+        target.appendUtf8(bytes, position, trimmed);
+        return stop;
+    }
+
+    // A flat JSON object with string or number values; unknown keys are ignored
+    private boolean parseJson(byte[] bytes, int position, int end) {
+        studentId.clear();
+        answer.clear();
+        questionNumber = 0;
+        boolean haveStudent = false;
+        boolean haveQuestion = false;
+        boolean haveAnswer = false;
+
+        position = skipSpace(bytes, position + 1, end);
+        if (position < end && bytes[position] == '}') {
+            return false;
+        }
+        for (;;) {
+            position = jsonString(bytes, position, end, key);
+            if (position < 0) {
+                return false;
+            }
+            position = skipSpace(bytes, position, end);
+            if (position >= end || bytes[position] != ':') {
+                return false;
+            }
+            position = skipSpace(bytes, position + 1, end);
+            if (position >= end) {
+                return false;
+            }
+
+            if (key.contentEquals("studentId") || key.contentEquals("studentID") || key.contentEquals("student")) {
+                position = jsonString(bytes, position, end, studentId);
+                haveStudent = true;
+            } else if (key.contentEquals("answer")) {
+                position = jsonString(bytes, position, end, answer);
+                haveAnswer = true;
+            } else if (key.contentEquals("question")) {
+                TextField number = key;
+                if (bytes[position] == '"') {
+                    position = jsonString(bytes, position, end, number);
+                } else {
+                    int stop = position;
+                    while (stop < end && bytes[stop] != ',' && bytes[stop] != '}' && (bytes[stop] & 0xFF) > ' ') {
+                        stop++;
+                    }
+                    number.clear();
+                    number.appendUtf8(bytes, position, stop);
+                    position = stop;
+                }
+                haveQuestion = position >= 0 && parseQuestion(number);
+            } else if (bytes[position] == '"') {
+                position = jsonString(bytes, position, end, key);
+            } else { // A number (or literal) nobody asked for
+                while (position < end && bytes[position] != ',' && bytes[position] != '}') {
+                    position++;
+                }
+            }
+            if (position < 0) {
+                return false;
+            }
+
+            position = skipSpace(bytes, position, end);
+            if (position >= end) {
+                return false;
+            }
+            if (bytes[position] == '}') {
+                return skipSpace(bytes, position + 1, end) == end && haveStudent && haveQuestion && haveAnswer;
+            }
+            if (bytes[position] != ',') {
+                return false;
+            }
+            position = skipSpace(bytes, position + 1, end);
+        }
+    }
+
+    // Reads a JSON string starting at its opening quote and returns the position after the closing one
+    private static int jsonString(byte[] bytes, int position, int end, TextField target) {
+        target.clear();
+        if (position >= end || bytes[position] != '"') {
+            return -1;
+        }
+        int i = position + 1;
+        int chunkStart = i;
+        while (i < end) {
+            byte b = bytes[i];
+            if (b == '"') {
+                target.appendUtf8(bytes, chunkStart, i);
+                return i + 1;
+            }
+            if (b == '\\') {
+                target.appendUtf8(bytes, chunkStart, i);
+                if (i + 1 >= end) {
+                    return -1;
+                }
+                byte escaped = bytes[i + 1];
+                i += 2;
+                switch (escaped) {
+                    case 'n': target.append('\n'); break;
+                    case 't': target.append('\t'); break;
+                    case 'r': target.append('\r'); break;
+                    case 'b': target.append('\b'); break;
+                    case 'f': target.append('\f'); break;
+                    case 'u':
+                        if (i + 4 > end) {
+                            return -1;
+                        }
+                        int code = 0;
+                        for (int k = 0; k < 4; k++) {
+                            int digit = Character.digit(bytes[i + k], 16);
+                            if (digit < 0) {
+                                return -1;
+                            }
+                            code = code * 16 + digit;
+                        }
+                        target.append((char) code);
+                        i += 4;
+                        break;
+                    default: target.append((char) escaped); // \" \\ \/
+                }
+                chunkStart = i;
+                continue;
+            }
+            i++;
+        }
+        return -1; // No closing quote
+    }
+
+    // Parses the question number from a field, into questionNumber
+    private boolean parseQuestion(TextField field) {
+        int length = field.length();
+        if (length == 0 || length > 9) {
+            return false;
+        }
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = field.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+            value = value * 10 + (c - '0');
+        }
+        questionNumber = value;
+        return true;
+    }
+
+    private static int skipSpace(byte[] bytes, int position, int end) {
+        while (position < end && (bytes[position] == ' ' || bytes[position] == '\t')) {
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * A growable character buffer used as a CharSequence, so parsed fields can be handed to the
+     * VotingService without making a String for each one.
+     */
+    private static final class TextField implements CharSequence {
+        private char[] chars = new char[64];
+        private int length;
+
+        void clear() {
+            length = 0;
+        }
+
+        void append(char c) {
+            if (length == chars.length) {
+                chars = java.util.Arrays.copyOf(chars, length * 2);
+            }
+            chars[length++] = c;
+        }
+
+        // Decodes UTF-8; malformed sequences become U+FFFD
+        void appendUtf8(byte[] bytes, int from, int to) {
+            int i = from;
+            while (i < to) {
+                int b = bytes[i] & 0xFF;
+                if (b < 0x80) {
+                    append((char) b);
+                    i++;
+                    continue;
+                }
+                int extra = b >= 0xF0 ? 3 : b >= 0xE0 ? 2 : b >= 0xC0 ? 1 : -1;
+                if (extra < 0 || i + extra >= to) { // Not a lead byte, or cut short
+                    append('\uFFFD');
+                    i++;
+                    continue;
+                }
+                int code = b & (0x3F >> extra);
+                for (int k = 1; k <= extra; k++) {
+                    code = (code << 6) | (bytes[i + k] & 0x3F);
+                }
+                if (code >= 0x10000) {
+                    append(Character.highSurrogate(code));
+                    append(Character.lowSurrogate(code));
+                } else {
+                    append((char) code);
+                }
+                i += extra + 1;
+            }
+        }
+
+        boolean contentEquals(String text) {
+            if (text.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (chars[i] != text.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index >= length) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(chars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+    }
+}
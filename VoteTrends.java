@@ -0,0 +1,177 @@
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sliding-window view of a VotingService's results: how the counts moved over the last few
+ * seconds, next to the all-time totals.
+ *
+ * Votes are not touched at all. Instead, at the end of every time bucket the tracker takes a
+ * results snapshot (which only folds in what changed since the previous one) and keeps it in a
+ * fixed ring of samples, together with the number of accepted votes at that moment. The
+ * votes of any window that fits in the ring are then the difference between the totals now and
+ * the totals at the bucket boundary that far back. Voting stays exactly as cheap as without
+ * trends, and memory is bounded by the ring: one set of per-question counts per bucket.
+ *
+ * Because the ring holds totals and not the ballots themselves, a window shows the net shift of
+ * each option: a student who moves from A to B within the window counts as -1 for A and +1 for
+ * B. The window is as precise as the bucket width.
+ *
+ * All trackers share one daemon thread that takes the samples. Call stop() (or the service's
+ * stopTrends()) when the trend is no longer needed, or the service stays referenced by it.
+ */
+final class VoteTrends implements AutoCloseable {
+
+    private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "vote-trends");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final VotingService votingService;
+    private final long bucketMillis;
+
+    // The ring: snapshots at bucket boundaries and the accepted votes counted by then
+    private final ResultsSnapshot[] samples;
+    private final long[] acceptedAt;
+    private int newest = -1;
+    private int size;
+
+    private ScheduledFuture < ? > task;
+
+    /**
+     * @param votingService The service to follow.
+     * @param bucketMillis Width of a bucket, which is also how precise a window is.
+     * @param buckets How many buckets are kept; the longest window is buckets * bucketMillis.
+     * @throws IllegalArgumentException if either is not positive.
+     */
+    VoteTrends(VotingService votingService, long bucketMillis, int buckets) {
+        if (bucketMillis <= 0 || buckets <= 0) {
+            throw new IllegalArgumentException("Bucket width and count must be positive");
+        }
+        this.votingService = votingService;
+        this.bucketMillis = bucketMillis;
+        this.samples = new ResultsSnapshot[buckets];
+        this.acceptedAt = new long[buckets];
+    }
+
+    /**
+     * Takes the first sample now and one at the end of every bucket from then on.
+     */
+    public void start() {
+        synchronized (this) {
+            if (task != null) {
+                return;
+            }
+        }
+        sample(); // Outside the lock, like every snapshot taken here
+        synchronized (this) {
+            if (task == null) {
+                task = SAMPLER.scheduleAtFixedRate(this::sample, bucketMillis, bucketMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Stops sampling. The samples already taken can still be queried.
+     */
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    /**
+     * @return The width of a bucket in milliseconds.
+     */
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    /**
+     * @return The longest window the ring can answer for, in milliseconds.
+     */
+    public long getHorizonMillis() {
+        return bucketMillis * samples.length;
+    }
+
+    /**
+     * Compares the results now with the results about windowMillis ago. Windows longer than the
+     * samples taken so far (or than the horizon) are cut to the oldest sample.
+     * @param windowMillis How far back to look.
+     * @return The change over the window, together with the current totals.
+     */
+    public TrendWindow window(long windowMillis) {
+        // The snapshot is taken before locking the ring, never the other way round
+        ResultsSnapshot now = votingService.snapshot();
+        long acceptedNow = votingService.getAcceptedVotes();
+        long since = now.getTakenAtMillis() - windowMillis;
+        synchronized (this) {
+            if (size == 0) {
+                return new TrendWindow(now, acceptedNow, now, acceptedNow);
+            }
+            // The newest sample no later than the start of the window, or else the oldest one
+            int chosen = oldest();
+            for (int i = 0; i < size; i++) {
+                int slot = Math.floorMod(newest - i, samples.length);
+                if (samples[slot].getTakenAtMillis() <= since) {
+                    chosen = slot;
+                    break;
+                }
+            }
+            return new TrendWindow(samples[chosen], acceptedAt[chosen], now, acceptedNow);
+        }
+    }
+
+    /**
+     * @return Accepted votes per second in each sampled bucket, oldest first.
+     */
+    public synchronized double[] getRateHistory() {
+        double[] rates = new double[Math.max(0, size - 1)];
+        for (int i = 0; i < rates.length; i++) {
+            int from = (oldest() + i) % samples.length;
+            int to = (from + 1) % samples.length;
+            long millis = samples[to].getTakenAtMillis() - samples[from].getTakenAtMillis();
+            rates[i] = (acceptedAt[to] - acceptedAt[from]) * 1000.0 / Math.max(1, millis);
+        }
+        return rates;
+    }
+
+    /**
+     * @return Approximate heap held by the samples, in bytes.
+     */
+    public synchronized long memoryBytes() {
+        long bytes = 64L + samples.length * 16L;
+        for (int i = 0; i < size; i++) {
+            ResultsSnapshot sample = samples[(oldest() + i) % samples.length];
+            bytes += 64L;
+            for (int q = 0; q < sample.getQuestions().size(); q++) {
+                bytes += 32L + (sample.getQuestions().get(q).getOptionCodes().size() + 2) * 8L;
+            }
+        }
+        return bytes;
+    }
+
+    // Closes the current bucket: stores the totals at its end, overwriting the oldest sample
+    private void sample() {
+        ResultsSnapshot snapshot = votingService.snapshot();
+        long accepted = votingService.getAcceptedVotes();
+        synchronized (this) {
+            newest = (newest + 1) % samples.length;
+            samples[newest] = snapshot;
+            acceptedAt[newest] = accepted;
+            size = Math.min(size + 1, samples.length);
+        }
+    }
+
+    private int oldest() {
+        return Math.floorMod(newest - size + 1, samples.length);
+    }
+}
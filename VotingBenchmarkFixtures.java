@@ -0,0 +1,277 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * What the JMH benchmarks in jmh/ivote/benchmark measure, built on the classes of this package.
+ *
+ * JMH only accepts benchmark classes in a named package, and a named package cannot refer to
+ * the classes here, so VotingBenchmark looks these methods up by name once per trial. Each
+ * returns the measured operation as a Runnable, BooleanSupplier or LongSupplier, which the
+ * benchmark then calls directly; services are handed back and forth as plain Objects.
+ */
+public final class VotingBenchmarkFixtures {
+
+    // Students each thread cycles through when submitting votes. Large question sets use fewer,
+    // so the ballot index of a run stays around a million slots per thread.
+    private static final int STUDENTS_PER_THREAD = 100_000;
+    private static final int SLOTS_PER_THREAD = 1_000_000;
+
+    // Votes per call in the batched submit benchmark
+    private static final int BATCH_SIZE = 1024;
+
+    // Students who have voted on every question before the result benchmarks run
+    private static final int RESULT_STUDENTS = 10_000;
+
+    // The null-stream writer of every service made by service(), closed by close()
+    private static final Map < Object, ReportWriter > WRITERS = Collections.synchronizedMap(new IdentityHashMap < > ());
+
+    private VotingBenchmarkFixtures() {
+    }
+
+    /**
+     * @param questionCount How many questions to configure.
+     * @param optionCount Options per question.
+     * @param metrics Whether submitVote records metrics.
+     * @param voted Whether every one of RESULT_STUDENTS students has already voted on every question.
+     * @return A VotingService whose reports are written to a null stream.
+     */
+    public static Object service(int questionCount, int optionCount, boolean metrics, boolean voted) {
+        List < Question > questions = questions(questionCount, optionCount);
+        VotingService service = new VotingService();
+        questions.forEach(service::configureQuestion);
+        service.setMetricsEnabled(metrics);
+        ReportWriter discard = new ReportWriter(OutputStream.nullOutputStream());
+        service.setOutput(discard);
+        WRITERS.put(service, discard);
+        if (voted) {
+            String[][] answers = answers(questions);
+            Student[] students = students(0, RESULT_STUDENTS);
+            for (int i = 0; i < students.length; i++) {
+                for (int q = 0; q < questions.size(); q++) {
+                    students[i].submitAnswer(answers[q][i % answers[q].length]);
+                    service.submitVote(students[i], questions.get(q));
+                }
+            }
+        }
+        return service;
+    }
+
+    /**
+     * Stops the report writer of a service made by service().
+     * @param service The service.
+     */
+    public static void close(Object service) {
+        ReportWriter discard = WRITERS.remove(service);
+        if (discard != null) {
+            ((VotingService) service).setOutput(null);
+            discard.close();
+        }
+    }
+
+    /**
+     * submitVote: the thread resubmits for its own students, cycling through questions and answers.
+     * @param service A service made by service().
+     * @param thread The thread's index, which picks its students.
+     * @return One vote per run.
+     */
+    public static Runnable submitVote(Object service, int thread) {
+        VotingService votingService = (VotingService) service;
+        List < Question > questions = votingService.snapshot().getQuestions();
+        Student[] students = students(thread, Math.min(STUDENTS_PER_THREAD, SLOTS_PER_THREAD / questions.size()));
+        String[][] answers = answers(questions);
+        return new Runnable() {
+            long i;
+            public void run() {
+                Student student = students[(int) (i % students.length)];
+                int q = (int) (i % questions.size());
+                String[] codes = answers[q];
+                student.submitAnswer(codes[(int) ((i / questions.size()) % codes.length)]);
+                votingService.submitVote(student, questions.get(q));
+                i++;
+            }
+        };
+    }
+
+    /**
+     * submitVotes: the same votes as submitVote, handed over in batches of BATCH_SIZE.
+     * @param service A service made by service().
+     * @param thread The thread's index, which picks its students.
+     * @return One batch per run; the operation counts BATCH_SIZE votes.
+     */
+    public static Runnable submitVotes(Object service, int thread) {
+        VotingService votingService = (VotingService) service;
+        List < Question > questions = votingService.snapshot().getQuestions();
+        Student[] students = students(thread, Math.min(STUDENTS_PER_THREAD, SLOTS_PER_THREAD / questions.size()));
+        String[][] answers = answers(questions);
+        VoteBatch batch = new VoteBatch(BATCH_SIZE);
+        return new Runnable() {
+            long i;
+            public void run() {
+                batch.clear();
+                for (int k = 0; k < BATCH_SIZE; k++, i++) {
+                    int q = (int) (i % questions.size());
+                    String[] codes = answers[q];
+                    batch.add(students[(int) (i % students.length)].getStudentID(), q, codes[(int) ((i / questions.size()) % codes.length)]);
+                }
+                votingService.submitVotes(batch);
+            }
+        };
+    }
+
+    /**
+     * @return Votes per submitVotes run.
+     */
+    public static int batchSize() {
+        return BATCH_SIZE;
+    }
+
+    /**
+     * isValidAnswer of a multiple choice question, one option per answer.
+     * @param optionCount Options of the question.
+     * @return One validation per call.
+     */
+    public static BooleanSupplier isValidMultiple(int optionCount) {
+        Question multiple = questions(1, optionCount).get(0);
+        String[] codes = answers(Collections.singletonList(multiple))[0];
+        return new BooleanSupplier() {
+            int i;
+            public boolean getAsBoolean() {
+                return multiple.isValidAnswer(codes[i++ % codes.length]);
+            }
+        };
+    }
+
+    /**
+     * isValidAnswer of a multiple choice question with two options picked, e.g. "A,C".
+     * @param optionCount Options of the question.
+     * @return One validation per call.
+     */
+    public static BooleanSupplier isValidMultiSelect(int optionCount) {
+        Question multiple = questions(1, optionCount).get(0);
+        String[] codes = answers(Collections.singletonList(multiple))[0];
+        String[] ballots = new String[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            ballots[i] = codes[i] + "," + codes[(i + codes.length / 2) % codes.length];
+        }
+        return new BooleanSupplier() {
+            int i;
+            public boolean getAsBoolean() {
+                return multiple.isValidAnswer(ballots[i++ % ballots.length]);
+            }
+        };
+    }
+
+    /**
+     * isValidAnswer of the single choice question of the classroom poll.
+     * @return One validation per call.
+     */
+    public static BooleanSupplier isValidSingle() {
+        Question single = new QuestionSingleChoice("Single?", Arrays.asList("[1] for Yes", "[2] for No"));
+        return new BooleanSupplier() {
+            int i;
+            public boolean getAsBoolean() {
+                return single.isValidAnswer((i++ & 1) == 0 ? "1" : "2");
+            }
+        };
+    }
+
+    /**
+     * displayConsolidatedResults, until its report has been written out.
+     * @param service A service made by service().
+     * @return One report per run.
+     */
+    public static Runnable displayConsolidatedResults(Object service) {
+        VotingService votingService = (VotingService) service;
+        return () -> {
+            votingService.displayConsolidatedResults();
+            votingService.flushOutput();
+        };
+    }
+
+    /**
+     * displayResults, until its report has been written out.
+     * @param service A service made by service().
+     * @return One report per run.
+     */
+    public static Runnable displayResults(Object service) {
+        VotingService votingService = (VotingService) service;
+        return () -> {
+            votingService.displayResults();
+            votingService.flushOutput();
+        };
+    }
+
+    /**
+     * @param service A service made by service().
+     * @return Takes a snapshot and returns its version.
+     */
+    public static LongSupplier snapshot(Object service) {
+        VotingService votingService = (VotingService) service;
+        return () -> votingService.snapshot().getVersion();
+    }
+
+    /**
+     * The whole automatic mode: configure questions, generate the students and submit their
+     * answers. Each thread has a fixed seed, so every run simulates the same students. The
+     * session prints to System.out, which the caller should point at a null stream.
+     * @param thread The thread's index, used as the seed.
+     * @return One automatic mode session per run.
+     */
+    public static Runnable generateStudents(int thread) {
+        return () -> {
+            VotingSession session = new VotingSession();
+            session.configureQuestions();
+            session.setWorkloadProfile(WorkloadProfile.defaults(thread, 0));
+            session.generateStudents();
+        };
+    }
+
+    /**
+     * @return A stream that discards everything, for System.out during generateStudents.
+     */
+    public static PrintStream nullPrintStream() {
+        return new PrintStream(OutputStream.nullOutputStream());
+    }
+
+    /**
+     * Builds multiple choice questions with the given number of options. Up to 26 options are
+     * lettered A-Z, larger questions are numbered like a candidate list.
+     */
+    static List < Question > questions(int questionCount, int optionCount) {
+        List < String > options = new ArrayList < > ();
+        for (int i = 0; i < optionCount; i++) {
+            String code = optionCount <= 26 ? String.valueOf((char) ('A' + i)) : Integer.toString(i + 1);
+            options.add("[" + code + "] Option " + (i + 1));
+        }
+        List < Question > questions = new ArrayList < > ();
+        for (int q = 0; q < questionCount; q++) {
+            questions.add(new QuestionMultipleChoice((q + 1) + ".) Benchmark question", options));
+        }
+        return questions;
+    }
+
+    // The option codes of every question, used as answers
+    static String[][] answers(List < Question > questions) {
+        String[][] answers = new String[questions.size()][];
+        for (int q = 0; q < answers.length; q++) {
+            OptionCodeTable codes = questions.get(q).getOptionCodes();
+            answers[q] = new String[codes.size()];
+            for (int i = 0; i < codes.size(); i++) {
+                answers[q][i] = codes.code(i);
+            }
+        }
+        return answers;
+    }
+
+    // A thread's own students, so threads never share a Student object
+    static Student[] students(int thread, int count) {
+        Student[] students = new Student[count];
+        for (int i = 0; i < students.length; i++) {
+            students[i] = new Student(LoadSimulation.studentId(thread * STUDENTS_PER_THREAD + i, 8));
+        }
+        return students;
+    }
+}
@@ -1,21 +1,110 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 
 /**
  * The VotingService class implements the iVoteInterface and is responsible for managing the voting process.
  * Holds methods for configuring questions, submitting votes, and displaying the results by 
  * cycling through the studentID list 
+ *
+ * submitVote is safe to call from many threads at once. Each question is compiled into an
+ * OptionCodeTable when it is configured, and its counts live in a striped OptionTally, so a
+ * valid vote is an array lookup plus an atomic array add: no locks, no strings, no garbage.
+ *
+ * "If multiple submissions are received from the same student, only the last submission will be counted."
+ * The service enforces this itself: every student ID is mapped to a small int handle by a
+ * StudentRegistry, and a
+ * BallotIndex per question remembers the ballot each handle last submitted. A resubmission moves
+ * the student's votes from the old options to the new ones.
+ *
+ * Ballots are bitmasks of the chosen options, so a multiple-choice answer like "A,C" is counted
+ * for both options at once, and only the options that changed are touched on a resubmission.
+ *
+ * Results are read through snapshot(), which returns an immutable ResultsSnapshot. The counts are
+ * kept current on every vote, so a snapshot only folds in what changed since the previous one and
+ * never scans the ballots. TallyEpoch keeps each snapshot consistent without stopping voters.
+ *
+ * The display methods render a whole report at once and hand it to a background ReportWriter,
+ * so printing thousands of lines never holds up the caller or the voters. Once that writer has
+ * failed they throw an UncheckedIOException instead of waiting for it.
+ *
+ * startTrends() additionally keeps time-bucketed samples of the results, so displayTrend() can
+ * show how the votes moved over the last few seconds next to the all-time totals.
+ *
+ * Optionally every accepted ballot is also appended to a VoteJournal. Opening a journal replays
+ * the ballots already in it, so a restarted service picks up where the last one stopped.
  */
 
 class VotingService implements SimulationInterface {
 
-    // Stores all questions and collected votes
-    private List < Question > questions = new ArrayList < > ();
+    // Stores all questions in the order they were configured
+    private List < Question > questions = new CopyOnWriteArrayList < > ();
 
-    // Maintains the order of the questions added and stores the number of votes
-    // for each of the questions
-    private Map < String, Map < String, Integer >> allVotes = new LinkedHashMap < > ();
+    // Stores the number of votes for each of the questions, one counter per option
+    // in the same order as question.getOptions()
+    private Map < Question, OptionTally > allVotes = new ConcurrentHashMap < > ();
 
+    // The ballot each student last submitted, per question
+    private Map < Question, BallotIndex > lastAnswers = new ConcurrentHashMap < > ();
+
+    // Maps each student ID to the dense handle used by the BallotIndex
+    private final StudentRegistry students = new StudentRegistry();
+
+    // Position of each question in configuration order, used by the journal
+    private Map < Question, Integer > questionIndexes = new ConcurrentHashMap < > ();
+
+    // Durable log of accepted ballots, null when the votes only live in memory
+    private volatile VoteJournal journal;
+
+    // How often the journal forces new records to disk
+    private static final long JOURNAL_FLUSH_MILLIS = 50;
+
+    // First journal record not covered by a restored checkpoint, replayed when the journal opens
+    private long journalReplayFrom = 1;
+
+    // Background checkpoint writer, null when not running; writes take the lock one at a time
+    private volatile VoteCheckpoint checkpoints;
+    private final Object checkpointLock = new Object();
+
+    // Decides which bank of the tallies writers use, so snapshots can be taken without locking
+    private final TallyEpoch epoch = new TallyEpoch();
+
+    // Ballots of the same student are replaced one at a time; see applyBallot()
+    private static final int BALLOT_LOCK_STRIPES = 1024;
+    private final Object[] ballotLocks = new Object[BALLOT_LOCK_STRIPES];
+
+    // Totals up to the last snapshot, per question: one per option, then the respondents.
+    // Only touched by snapshot(), which folds the quiet bank of each tally into them.
+    private Map < Question, long[] > runningTotals = new ConcurrentHashMap < > ();
+
+    // Groups the options into answer types for the consolidated results (A, B, ..., True, False).
+    // The type of each option is worked out once, when its question is configured.
+    private final VoteAggregator consolidation = new VoteAggregator(VoteAggregator.BY_ANSWER_TYPE);
+    private long snapshotVersion;
+
+    // Aggregators compiled for consolidate(Grouping), kept up to date as questions are configured.
+    // Bounded, as a caller building a new lambda per call would otherwise fill it.
+    private static final int MAX_CACHED_GROUPINGS = 16;
+    private final Map < VoteAggregator.Grouping, VoteAggregator > aggregators = new ConcurrentHashMap < > ();
+
+    // Where the display methods send their reports; the shared console writer when null
+    private volatile ReportWriter output;
+
+    // Counters and latency histograms of submitVote
+    private final VoteMetrics metrics = new VoteMetrics();
+
+    // Samples of the results for sliding-window queries, null until startTrends is called
+    private volatile VoteTrends trends;
+
+    public VotingService() {
+        for (int i = 0; i < BALLOT_LOCK_STRIPES; i++) {
+            ballotLocks[i] = new Object();
+        }
+    }
 
     /**
      * Configures a question for the voting session.
@@ -23,82 +112,617 @@ class VotingService implements SimulationInterface {
      *
      * @param question The question to be added to the voting session.
      */
-    public void configureQuestion(Question question) {
+    public synchronized void configureQuestion(Question question) {
         // Configures a question for the voting session.
         // Initializes the vote count map for this question with empty (zero) values for all possible answers.
+        OptionCodeTable codes = question.getOptionCodes();
+        allVotes.put(question, new OptionTally(codes.size())); // Create zeroed counters for this question's votes in allVotes
+        lastAnswers.put(question, new BallotIndex(codes.size()));
+        runningTotals.put(question, new long[codes.size() + 1]);
+
+        consolidation.addQuestion(question); // Option codes 1 and 2 count as True and False, letters as themselves
+        for (VoteAggregator aggregator: aggregators.values()) {
+            aggregator.addQuestion(question);
+        }
+
+        questionIndexes.put(question, questions.size());
+        metrics.addQuestion();
         questions.add(question); // Add the question to the list
-        allVotes.put(question.getQuestionText(), new HashMap < > ()); // Create an empty map for this question's votes in allVotes
+    }
+
+    /**
+     * Starts logging every accepted ballot to a journal file. If the file already holds ballots
+     * from an earlier run they are replayed first, rebuilding the results. Call this after
+     * configuring the questions (in the same order as before) and before submitting votes.
+     * After restoreCheckpoint() only the ballots the checkpoint does not hold are replayed.
+     *
+     * @param file The journal file, created if it does not exist.
+     * @return The number of ballots recovered from the file.
+     * @throws IOException if the journal cannot be opened or read.
+     * @throws IllegalStateException if the journal does not match the configured questions.
+     */
+    public long openJournal(Path file) throws IOException {
+        if (journal != null) {
+            throw new IllegalStateException("A journal is already open");
+        }
+        long[] recovered = new long[1];
+        journal = new VoteJournal(file, JOURNAL_FLUSH_MILLIS, journalReplayFrom, (studentID, questionIndex, options, optionCount) -> {
+            if (questionIndex < 0 || questionIndex >= questions.size()) {
+                throw new IllegalStateException("Journal refers to question " + questionIndex + " but "
+                    + questions.size() + " questions are configured");
+            }
+            Question question = questions.get(questionIndex);
+            int questionOptions = question.getOptionCodes().size();
+            long selection = 0;
+            long[] wideSelection = questionOptions > 64 ? new long[ParsedAnswer.wordsFor(questionOptions)] : null;
+            for (int i = 0; i < optionCount; i++) {
+                if (options[i] < 0 || options[i] >= questionOptions) {
+                    throw new IllegalStateException("Journal refers to option " + options[i] + " of question " + questionIndex);
+                }
+                if (wideSelection != null) {
+                    wideSelection[options[i] >>> 6] |= 1L << options[i];
+                } else {
+                    selection |= 1L << options[i];
+                }
+            }
+            recordBallot(studentHandle(studentID), question, selection, wideSelection);
+            recovered[0]++;
+        });
+        return recovered[0];
+    }
+
+    /**
+     * Writes a checkpoint of the students and their ballots, which restoreCheckpoint() can load
+     * far faster than the journal can be replayed. Voting goes on while it is written; see
+     * VoteCheckpoint for what the checkpoint then holds.
+     * @param file The checkpoint file, replaced if it exists.
+     * @throws IOException if the file cannot be written.
+     */
+    public void writeCheckpoint(Path file) throws IOException {
+        synchronized (checkpointLock) {
+            long journalSequence;
+            int studentCount;
+            List < Question > current;
+            VoteJournal forced = journal;
+            if (forced != null) {
+                forced.flush(); // Outside the lock: only the forced part of the journal may be referred to
+            }
+            synchronized (this) {
+                VoteJournal log = journal;
+                journalSequence = log != null ? log.checkpointSequence() : 0;
+                snapshot(); // Switching the epoch waits for every ballot journalled before journalSequence
+                studentCount = students.size();
+                current = new ArrayList < > (questions);
+            }
+            List < BallotIndex > ballots = new ArrayList < > (current.size());
+            for (Question question: current) {
+                ballots.add(lastAnswers.get(question));
+            }
+            VoteCheckpoint.write(file, current, ballots, students, studentCount, journalSequence);
+        }
+    }
+
+    /**
+     * Rebuilds the students, ballots and counts from a checkpoint. Call this after configuring
+     * the questions (in the same order as before) and before opening the journal or voting;
+     * openJournal() then only replays what happened after the checkpoint.
+     *
+     * @param file A checkpoint written by writeCheckpoint().
+     * @return The number of students restored.
+     * @throws IOException if the file cannot be read or is not a checkpoint.
+     * @throws IllegalStateException if votes were already counted, a journal is open, or the
+     *         checkpoint does not match the configured questions.
+     */
+    public synchronized int restoreCheckpoint(Path file) throws IOException {
+        if (students.size() > 0 || journal != null) {
+            throw new IllegalStateException("A checkpoint can only be restored before any vote or journal");
+        }
+        List < BallotIndex > ballots = new ArrayList < > (questions.size());
+        long[][] totals = new long[questions.size()][];
+        for (int q = 0; q < questions.size(); q++) {
+            ballots.add(lastAnswers.get(questions.get(q)));
+            totals[q] = runningTotals.get(questions.get(q));
+        }
+        long journalSequence = VoteCheckpoint.read(file, questions, ballots, students, totals);
+        journalReplayFrom = Math.max(1, journalSequence);
+        return students.size();
+    }
+
+    /**
+     * Writes a checkpoint to the file every interval, in the background, until stopCheckpoints().
+     * @param file The checkpoint file; each checkpoint replaces the last.
+     * @param intervalMillis Time between checkpoints.
+     */
+    public synchronized void startCheckpoints(Path file, long intervalMillis) {
+        if (checkpoints != null) {
+            throw new IllegalStateException("Checkpoints are already being written");
+        }
+        checkpoints = new VoteCheckpoint(this, file, intervalMillis);
+    }
+
+    /**
+     * Stops the background checkpoints, waiting for one in progress. Does nothing if none run.
+     */
+    public void stopCheckpoints() {
+        VoteCheckpoint running;
+        synchronized (this) {
+            running = checkpoints;
+            checkpoints = null;
+        }
+        if (running != null) {
+            running.close(); // Outside the lock: the checkpoint being written needs it
+        }
+    }
+
+    /**
+     * Forces the journal to disk and closes it. Does nothing if no journal is open.
+     * @throws IOException if the last records cannot be written.
+     */
+    public void closeJournal() throws IOException {
+        VoteJournal open = journal;
+        journal = null;
+        if (open != null) {
+            open.close();
+        }
     }
 
     /**
      * Submits a student's vote for a specific question.
+     * If the student already voted on this question, their earlier vote is replaced.
      *
      * @param student The student submitting the vote.
      * @param question The question the student is voting on.
      */
 
      public void submitVote(Student student, Question question) {
-        String studentAnswer = student.getAnswer();
-        boolean validAnswer = question.isValidAnswer(studentAnswer);
+        int questionIndex = questionIndexes.get(question);
+        long start = metrics.startTimer();
+        ParsedAnswer parsed = question.parseAnswer(student.getAnswer());
     
-        if (validAnswer) {
-            String answerKey = question.getFullAnswer(); // Get the full answer, including brackets
-            Map<String, Integer> voteCounts = allVotes.get(question.getQuestionText());
-            voteCounts.put(answerKey, voteCounts.getOrDefault(answerKey, 0) + 1); // Increment the count for the full answer
+        if (parsed.isValid()) {
+            accept(student.getStudentID(), questionIndex, question, parsed);
+        } else {
+            metrics.rejected(parsed.getRejection());
         }
+        metrics.stopTimer(questionIndex, start);
     }
 
     /**
-     * Displays the voting results for each individual question.
+     * Submits a vote without a Student object, addressing the question by its position.
+     * Neither the ID nor the answer is kept, so callers may pass reusable buffers.
+     *
+     * @param studentID The student submitting the vote.
+     * @param questionIndex The question, in configuration order.
+     * @param answer The student's answer.
+     * @return true if the answer was valid and counted.
+     * @throws IndexOutOfBoundsException if there is no such question.
      */
-    public void displayResults() {
+    public boolean submitVote(CharSequence studentID, int questionIndex, CharSequence answer) {
+        Question question = questions.get(questionIndex);
+        long start = metrics.startTimer();
+        ParsedAnswer parsed = question.parseAnswer(answer);
+        if (!parsed.isValid()) {
+            metrics.rejected(parsed.getRejection());
+            metrics.stopTimer(questionIndex, start);
+            return false;
+        }
+        accept(studentID, questionIndex, question, parsed);
+        metrics.stopTimer(questionIndex, start);
+        return true;
+    }
+
+    /**
+     * Submits a batch of votes in one pass. Every answer is parsed first; the accepted ballots
+     * are then journalled with a single reservation and counted inside a single tally epoch, so
+     * the whole batch costs one synchronization point instead of one per vote. The outcome of
+     * each vote is left in the batch.
+     *
+     * @param batch The votes; question indexes are in configuration order.
+     * @return How many votes were valid and counted.
+     * @throws IndexOutOfBoundsException if a vote names a question that does not exist. Nothing
+     *         in the batch is counted then.
+     */
+    public int submitVotes(VoteBatch batch) {
+        List < Question > current = questions;
+        int size = batch.size();
+        int questionCount = current.size();
+        for (int i = 0; i < size; i++) {
+            int questionIndex = batch.getQuestionIndex(i);
+            if (questionIndex < 0 || questionIndex >= questionCount) {
+                throw new IndexOutOfBoundsException("Vote " + i + " is for question " + questionIndex + " but "
+                    + questionCount + " questions are configured");
+            }
+        }
 
+        int accepted = 0;
+        int malformed = 0;
+        int[] handles = batch.handles();
+        for (int i = 0; i < size; i++) {
+            ParsedAnswer parsed = current.get(batch.getQuestionIndex(i)).parseAnswer(batch.getAnswer(i));
+            batch.setResult(i, parsed);
+            if (parsed.isValid()) {
+                handles[i] = studentHandle(batch.getStudentId(i));
+                accepted++;
+            } else if (parsed.getRejection() == ParsedAnswer.Rejection.MALFORMED) {
+                malformed++;
+            }
+        }
+        if (accepted == 0) {
+            metrics.add(0, 0, malformed, size - malformed);
+            return 0;
+        }
+
+        // Look the per-question tables up once for the whole batch
+        OptionTally[] tallies = new OptionTally[questionCount];
+        BallotIndex[] indexes = new BallotIndex[questionCount];
+        for (int q = 0; q < questionCount; q++) {
+            tallies[q] = allVotes.get(current.get(q));
+            indexes[q] = lastAnswers.get(current.get(q));
+        }
+
+        int replaced = 0;
+        int bank = epoch.enter();
+        try {
+            VoteJournal log = journal;
+            if (log != null) {
+                log.append(batch);
+            }
+            for (int i = 0; i < size; i++) {
+                ParsedAnswer parsed = batch.getResult(i);
+                if (parsed.isValid()) {
+                    int q = batch.getQuestionIndex(i);
+                    if (!applyBallot(handles[i], tallies[q], indexes[q], parsed.getSelection(), parsed.wideSelection())) {
+                        replaced++;
+                    }
+                }
+            }
+        } finally {
+            epoch.exit(bank);
+        }
+        metrics.add(accepted, replaced, malformed, size - accepted - malformed);
+        return accepted;
+    }
+
+    /**
+     * @return How many questions are configured.
+     */
+    public int getQuestionCount() {
+        return questions.size();
+    }
+
+    /**
+     * Reads the ballot that currently counts for a student, for checks such as VotingStressCheck.
+     * @param studentID The student.
+     * @param questionIndex The question, in configuration order.
+     * @return The chosen options as a bitmask, one long per 64 options; all 0 if the student has
+     *         not answered the question.
+     * @throws IndexOutOfBoundsException if there is no such question.
+     */
+    public long[] getBallot(CharSequence studentID, int questionIndex) {
+        Question question = questions.get(questionIndex);
+        long[] ballot = new long[ParsedAnswer.wordsFor(question.getOptionCodes().size())];
+        int handle = students.find(studentID);
+        if (handle >= 0) {
+            lastAnswers.get(question).copy(handle, ballot);
+        }
+        return ballot;
+    }
+
+    /**
+     * Estimates the heap used by the votes held so far: tallies, ballot slots and student handles.
+     * @return Approximate size in bytes.
+     */
+    public long estimateMemoryBytes() {
+        long bytes = 0;
         for (Question question: questions) {
-            System.out.println("\nVoting Results for: " + question.getQuestionText()); // Reiterates the question prompt
-            Map < String, Integer > voteCounts = allVotes.get(question.getQuestionText());
+            bytes += allVotes.get(question).memoryBytes() + lastAnswers.get(question).memoryBytes();
+        }
+        VoteTrends sampled = trends;
+        if (sampled != null) {
+            bytes += sampled.memoryBytes();
+        }
+        return bytes + students.memoryBytes() + metrics.memoryBytes();
+    }
 
-            // Display vote count for the questions options
-            for (String option: question.getOptions()) {
-                System.out.println(option + ": " + voteCounts.getOrDefault(option, 0));
+    // Logs and counts an answer that already passed validation. The ballot is journalled inside
+    // the epoch, so a checkpoint can wait for every journalled ballot to be counted.
+    private void accept(CharSequence studentID, int questionIndex, Question question, ParsedAnswer parsed) {
+        boolean first;
+        int bank = epoch.enter();
+        try {
+            VoteJournal log = journal;
+            if (log != null) {
+                log.append(studentID, questionIndex, parsed);
             }
+            first = applyBallot(studentHandle(studentID), allVotes.get(question), lastAnswers.get(question),
+                parsed.getSelection(), parsed.wideSelection());
+        } finally {
+            epoch.exit(bank);
         }
+        metrics.accepted(!first);
+    }
+
+    // Replaces the student's ballot for the question and updates the counts to match.
+    // wideSelection is used instead of selection when the question has more than 64 options.
+    // Returns true if this is the student's first ballot for the question.
+    private boolean recordBallot(int handle, Question question, long selection, long[] wideSelection) {
+        int bank = epoch.enter();
+        try {
+            return applyBallot(handle, allVotes.get(question), lastAnswers.get(question), selection, wideSelection);
+        } finally {
+            epoch.exit(bank);
+        }
+    }
+
+    // Does the work of recordBallot inside an epoch the caller has already entered.
+    // The ballot is swapped and counted under the student's lock, in the bank that is live at that
+    // moment. Two ballots of the same student are therefore counted in the order they replaced each
+    // other, and a snapshot never holds a later one without the one it replaced: without the lock,
+    // a resubmission counted after the bank switch could take back a ballot counted before it, and
+    // the snapshot would show the removal without the addition.
+    private boolean applyBallot(int handle, OptionTally voteCounts, BallotIndex ballots, long selection, long[] wideSelection) {
+        boolean first;
+        synchronized (ballotLocks[handle & (BALLOT_LOCK_STRIPES - 1)]) {
+            int bank = epoch.live();
+            if (wideSelection != null) { // More than 64 options, the ballot spans several longs
+                first = ballots.exchange(handle, wideSelection, voteCounts, bank);
+            } else {
+                long previous = ballots.exchange(handle, selection);
+                // Take back the student's earlier votes and count the new ones.
+                // Resubmitting the same answer changes nothing.
+                voteCounts.applyChange(bank, previous, selection, 0);
+                first = previous == 0;
+            }
+            if (first) {
+                voteCounts.addRespondent(bank);
+            }
+        }
+        return first;
+    }
+
+    // Returns the student's handle, handing out the next free one on their first vote
+    private int studentHandle(CharSequence studentID) {
+        return students.register(studentID);
     }
 
     /**
-     * Displays the consolidated results of all questions, combining results for similar answer types (A, B, C, D or True/False).
+     * Takes a consistent, point-in-time snapshot of the results without blocking voting.
+     * Votes made while the snapshot is taken show up in the next one.
+     *
+     * @return The current results.
      */
-    public void displayConsolidatedResults() {
+    public synchronized ResultsSnapshot snapshot() {
+        int quietBank = epoch.advance();
+        List < Question > current = new ArrayList < > (questions);
+        long[][] counts = new long[current.size()][];
 
-        System.out.println("\nVoting Results For All iVote Service Questions:");
-        Map < String, Integer > consolidatedResults = new HashMap < > ();
-
-        // Initialize the map with zero counts for all possible options (A, B, C, D, or T/F)
-        consolidatedResults.put("A", 0);
-        consolidatedResults.put("B", 0);
-        consolidatedResults.put("C", 0);
-        consolidatedResults.put("D", 0);
-        consolidatedResults.put("True", 0);
-        consolidatedResults.put("False", 0);
-
-        // Iterate over all questions and their vote counts:
-        for (Map < String, Integer > voteCounts: allVotes.values()) {
-            for (Map.Entry < String, Integer > entry: voteCounts.entrySet()) {
-                String key = entry.getKey().substring(1, 2); // Extract the option letter (A, B, C, D) or the answer (1/2)
-                if (key.equals("1")) {
-                    key = "True"; // Set "1" to "True"
-                } else if (key.equals("2")) {
-                    key = "False"; // Set "2" to "False"
+        for (int q = 0; q < current.size(); q++) {
+            Question question = current.get(q);
+            long[] totals = runningTotals.get(question);
+            allVotes.get(question).drain(quietBank, totals); // Fold in the votes since the last snapshot
+            counts[q] = totals.clone();
+        }
+
+        Map < String, Long > consolidated = consolidation.aggregate(counts);
+        return new ResultsSnapshot(++snapshotVersion, System.currentTimeMillis(), current, counts, consolidated);
+    }
+
+    /**
+     * Consolidates the current results across all questions with a grouping of one's own, e.g.
+     * VoteAggregator.BY_QUESTION_TYPE or a lambda that groups options by a key of the caller's.
+     * The grouping is compiled on its first use and the aggregator kept for the next calls with
+     * the same Grouping object, so pass a constant rather than a new lambda each time.
+     * @param grouping Decides which group each option of each question is counted in.
+     * @return The total of every group, in order of first appearance.
+     */
+    public Map < String, Long > consolidate(VoteAggregator.Grouping grouping) {
+        VoteAggregator aggregator = aggregators.get(grouping);
+        if (aggregator == null) {
+            synchronized (this) { // No question can be configured while the aggregator is compiled
+                aggregator = aggregators.get(grouping);
+                if (aggregator == null) {
+                    aggregator = VoteAggregator.of(grouping, questions);
+                    if (aggregators.size() < MAX_CACHED_GROUPINGS) {
+                        aggregators.put(grouping, aggregator);
+                    }
                 }
-                consolidatedResults.put(key, consolidatedResults.get(key) + entry.getValue()); // Increment count for the option
             }
         }
+        return consolidate(aggregator);
+    }
+
+    /**
+     * Consolidates the current results with an aggregator the caller compiled and keeps.
+     * @param aggregator An aggregator of the configured questions, in configuration order; votes
+     *        for questions configured after it was built are left out.
+     * @return The total of every group, in order of first appearance.
+     */
+    public Map < String, Long > consolidate(VoteAggregator aggregator) {
+        return aggregator.aggregate(snapshot());
+    }
+
+    /**
+     * @return The vote counters and submitVote latencies as they are now. Never blocks voting.
+     */
+    public MetricsSnapshot getMetrics() {
+        return metrics.snapshot();
+    }
+
+    // Valid votes counted so far, for the vote rate of trends
+    long getAcceptedVotes() {
+        return metrics.getAccepted();
+    }
+
+    /**
+     * Metrics are on by default; they cost a few percent of submitVote throughput at most.
+     * @param enabled false to stop counting and timing votes.
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        metrics.setEnabled(enabled);
+    }
+
+    /**
+     * Starts keeping time-bucketed samples of the results, so getTrend() can tell how the votes
+     * moved over a recent window. Voting is not slowed down; see VoteTrends. Does nothing if
+     * trends are already on.
+     *
+     * @param bucketMillis Width of a bucket, which is also how precise a window is.
+     * @param buckets How many buckets are kept; the longest window is buckets * bucketMillis.
+     */
+    public synchronized void startTrends(long bucketMillis, int buckets) {
+        if (trends == null) {
+            VoteTrends started = new VoteTrends(this, bucketMillis, buckets);
+            started.start();
+            trends = started;
+        }
+    }
+
+    /**
+     * Stops sampling the results and drops the samples. Does nothing if trends are off.
+     */
+    public synchronized void stopTrends() {
+        VoteTrends running = trends;
+        trends = null;
+        if (running != null) {
+            running.stop();
+        }
+    }
+
+    /**
+     * Compares the results now with the results windowMillis ago, e.g. the last 10 seconds
+     * against the whole session.
+     * @param windowMillis How far back to look; cut to what has been sampled.
+     * @return The change within the window and the current totals.
+     * @throws IllegalStateException if startTrends() has not been called.
+     */
+    public TrendWindow getTrend(long windowMillis) {
+        VoteTrends sampled = trends;
+        if (sampled == null) {
+            throw new IllegalStateException("Trends are not started");
+        }
+        return sampled.window(windowMillis);
+    }
+
+    /**
+     * Displays every option's total next to its change over the last windowMillis, and the
+     * rate of votes over that window.
+     * @param windowMillis How far back to look.
+     * @throws IllegalStateException if startTrends() has not been called.
+     */
+    public void displayTrend(long windowMillis) {
+        displayTrend(windowMillis, ReportFormat.TEXT);
+    }
+
+    /**
+     * Queues the trend over the last windowMillis on the output writer in the given format.
+     * @param windowMillis How far back to look.
+     * @param format The output format.
+     * @throws IllegalStateException if startTrends() has not been called.
+     */
+    public void displayTrend(long windowMillis, ReportFormat format) {
+        StringBuilder report = new StringBuilder();
+        try {
+            ResultsReporter.renderTrend(getTrend(windowMillis), format, report);
+        } catch (IOException e) {
+            throw new AssertionError(e); // A StringBuilder never throws
+        }
+        display(report);
+    }
+
+    /**
+     * Sends the reports of the display methods to a different writer than the console.
+     * @param output The writer to use.
+     */
+    public void setOutput(ReportWriter output) {
+        this.output = output;
+    }
+
+    /**
+     * Writes a full report (every question, then the consolidated results) in the given format.
+     * @param format The output format.
+     * @param out Where the report goes.
+     * @throws IOException if out cannot be written to.
+     */
+    public void writeResults(ReportFormat format, Appendable out) throws IOException {
+        ResultsReporter.render(snapshot(), format, out);
+    }
+
+    /**
+     * Queues a full report in the given format on the output writer.
+     * @param format The output format.
+     */
+    public void displayReport(ReportFormat format) {
+        StringBuilder report = new StringBuilder();
+        try {
+            writeResults(format, report);
+        } catch (IOException e) {
+            throw new AssertionError(e); // A StringBuilder never throws
+        }
+        display(report);
+    }
+
+    /**
+     * Waits until everything the display methods queued has been written out.
+     */
+    public void flushOutput() {
+        output().flush();
+    }
+
+    /**
+     * Displays the voting results for each individual question.
+     * The whole report is rendered first and handed to the output writer in one piece.
+     */
+    public void displayResults() {
+        StringBuilder report = new StringBuilder();
+        try {
+            ResultsReporter.renderQuestions(snapshot(), ReportFormat.TEXT, report);
+        } catch (IOException e) {
+            throw new AssertionError(e); // A StringBuilder never throws
+        }
+        display(report);
+    }
+
+    /**
+     * Displays the consolidated results of all questions, combining results for similar answer types (A, B, C, D or True/False).
+     */
+    public void displayConsolidatedResults() {
+        StringBuilder report = new StringBuilder();
+        try {
+            // The totals per answer type are worked out when the snapshot is taken
+            ResultsReporter.renderConsolidated(snapshot(), ReportFormat.TEXT, report);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        display(report);
+    }
+
+    /**
+     * Displays the results of all questions consolidated with the given grouping.
+     * @param title The heading of the report, e.g. "By question type".
+     * @param grouping Decides which group each option of each question is counted in.
+     */
+    public void displayConsolidatedResults(String title, VoteAggregator.Grouping grouping) {
+        StringBuilder report = new StringBuilder();
+        try {
+            ResultsReporter.renderGroups(title, consolidate(grouping), ReportFormat.TEXT, report);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        display(report);
+    }
+
+    // Hands a rendered report to the output writer. The display methods keep the signatures of
+    // SimulationInterface, so a writer whose stream has failed is reported unchecked.
+    private void display(CharSequence report) {
+        try {
+            output().write(report);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        // Displays the consolidated results:
-        System.out.println("[A]: " + consolidatedResults.get("A"));
-        System.out.println("[B]: " + consolidatedResults.get("B"));
-        System.out.println("[C]: " + consolidatedResults.get("C"));
-        System.out.println("[D]: " + consolidatedResults.get("D"));
-        System.out.println("[True]: " + consolidatedResults.get("True"));
-        System.out.println("[False]: " + consolidatedResults.get("False"));
+    private ReportWriter output() {
+        ReportWriter writer = output;
+        return writer != null ? writer : ReportWriter.console();
     }
 }
\ No newline at end of file
@@ -0,0 +1,424 @@
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**  VotingSession holds the question configuration, a manual/auto mode for usage, and 
+ * the ability to call the VotingService class to provide the logged collected votes. 
+ */
+class VotingSession {
+    private VotingService votingService = new VotingService();
+    private List < Question > questionList = new ArrayList < > ();
+    private boolean automaticMode; // Whether automatic or manual mode
+    private ReportFormat reportFormat = ReportFormat.TEXT; // How displayResults prints the results
+    private long trendWindowMillis; // Window of the trend displayResults adds, 0 for none
+    private Path checkpointFile; // Where the session is checkpointed, null for nowhere
+    private WorkloadProfile workloadProfile = WorkloadProfile.defaults(new Random().nextLong(), 0); // Simulated students
+    private static final long CHECKPOINT_MILLIS = 5000;
+
+
+    /**
+     * Configures the questions for the voting session
+     * and adds them to the questionList
+     * Covers part 2/3 of the question prompt
+     */
+    public void configureQuestions() {
+        configureQuestions(standardQuestions());
+    }
+
+    /**
+     * Configures the voting session with the given questions, in order.
+     * @param questions The questions students will answer.
+     */
+    public void configureQuestions(List < Question > questions) {
+        questionList.addAll(questions);
+        questions.forEach(votingService::configureQuestion);
+    }
+
+    /**
+     * Configures the voting session with the questions of a definition file (see QuestionCatalogue).
+     * @param definitions The definition file; its compiled image is cached next to it.
+     * @throws IOException if the file cannot be read.
+     */
+    public void configureQuestions(Path definitions) throws IOException {
+        long start = System.nanoTime();
+        QuestionCatalogue catalogue = QuestionCatalogue.load(definitions);
+        System.out.printf("Loaded %d questions from %s in %.1f ms%n", catalogue.size(), definitions,
+            (System.nanoTime() - start) / 1e6);
+        configureQuestions(catalogue.getQuestions());
+    }
+
+    // The four questions of the classroom poll, in the QuestionCatalogue definition format
+    private static final String STANDARD_QUESTIONS = String.join("\n",
+        "multiple: 1.) What are your favorite programming languages?",
+        "    [A] Python", "    [B] Java", "    [C] C++", "    [D] Rust",
+        "multiple: 2.) What is your favorite day?",
+        "    [A] Monday", "    [B] Tuesday", "    [C] Friday", "    [D] Saturday",
+        "single: 3.) Do you take the elevator to class?",
+        "    [1] for Yes", "    [2] for No",
+        "single: 4.) Is this class CS3560?",
+        "    [1] for Yes", "    [2] for No");
+
+    static List < Question > standardQuestions() {
+        try {
+            return QuestionCatalogue.parse(new java.io.StringReader(STANDARD_QUESTIONS)).getQuestions();
+        } catch (IOException e) {
+            throw new AssertionError(e); // A StringReader never throws
+        }
+    }
+
+
+    /**
+     * Prompts the user to select the mode manual or automatic.
+     * @param scanner Saves the users input for mode.
+     */
+    public void selectMode(Scanner scanner) {
+
+        boolean validMode = false;
+        while (!validMode) { // Loop until a valid mode response is given.
+            System.out.println("Press [1] for manual mode");
+            System.out.println("Press [2] for automatic mode");
+            String mode = scanner.nextLine();
+
+            if ("1".equals(mode)) {
+                automaticMode = false; // Manual mode
+                validMode = true;
+            } else if ("2".equals(mode)) {
+                automaticMode = true; // Automatic mode
+                validMode = true;
+            } else {
+                System.out.println("Invalid mode selection. Please enter 1 or 2.");
+            }
+        }
+    }
+
+    /**
+     * @return The profile of the students simulated by generateStudents and simulateLoad.
+     */
+    public WorkloadProfile getWorkloadProfile() {
+        return workloadProfile;
+    }
+
+    /**
+     * @param workloadProfile The profile of the students simulated by generateStudents and
+     *        simulateLoad. Its student count is ignored; each mode picks its own.
+     */
+    public void setWorkloadProfile(WorkloadProfile workloadProfile) {
+        this.workloadProfile = workloadProfile;
+    }
+
+    /**
+     * Simulates student responses in automatic mode.
+     * Generates a random number of students (10-50), assigns them IDs,
+     * and automatically generates answers for each question.
+     * The answers come from the workload profile exactly as in simulateLoad: the same skew,
+     * resubmission rate and invalid answers, and the same votes for the same seed.
+     */
+    public void generateStudents() {
+        int numberOfStudents = 10 + new Random(workloadProfile.getSeed()).nextInt(41);
+        System.out.println("Number of students participating: " + numberOfStudents + " (seed " + workloadProfile.getSeed() + ")");
+    
+        // IDs come from the profile, which never hands out the same one twice
+        WorkloadProfile.Generator workload = workloadProfile.withStudents(numberOfStudents).forQuestions(questionList);
+
+        // Students answer a question as often as the profile's resubmission rate has them. Every
+        // answer is submitted, and the VotingService only keeps the most recent one for each student:
+        // "If multiple submissions are received from the same student, only the last submission will be counted."
+        for (int i = 0; i < numberOfStudents; i++) {
+            Student student = new Student(workload.studentId(i));
+            workload.votesOf(i, (studentID, questionIndex, answer) -> {
+                student.submitAnswer(answer);
+                votingService.submitVote(student, questionList.get(questionIndex)); // Submits the response to the votingService class
+            });
+        }
+    }
+    
+
+
+    /**
+     * Simulates a large number of students voting at the same time, for capacity planning.
+     * The students are split across a fork/join pool and every answer goes through
+     * votingService.submitVote, exactly like the other modes. Their answers follow the
+     * workload profile; the printed checksum of the votes is the same for the same profile
+     * whatever the number of threads.
+     *
+     * @param numberOfStudents How many students take part.
+     * @param threads How many threads submit votes.
+     */
+    public void simulateLoad(int numberOfStudents, int threads) {
+        if (numberOfStudents < 0 || threads < 1) {
+            throw new IllegalArgumentException("Expected students >= 0 and threads >= 1");
+        }
+        WorkloadProfile profile = workloadProfile.withStudents(numberOfStudents);
+        System.out.println("Simulating " + profile + " on " + threads + " threads");
+
+        LongAdder votesSubmitted = new LongAdder();
+        LongAdder checksum = new LongAdder();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        try {
+            pool.invoke(new LoadSimulation(votingService, profile.forQuestions(questionList), votesSubmitted, checksum));
+        } finally {
+            pool.shutdown();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        long votes = votesSubmitted.sum();
+        System.out.printf("Submitted %d votes in %d ms (%.0f votes/s), vote stream checksum %016x%n",
+            votes, elapsedNanos / 1_000_000, votes * 1e9 / Math.max(1, elapsedNanos), checksum.sum());
+        MetricsSnapshot metrics = votingService.getMetrics();
+        System.out.printf("Accepted %d (%d replaced an earlier ballot), rejected %d%n",
+            metrics.getAccepted(), metrics.getReplaced(), metrics.getRejected());
+        for (int q = 0; q < questionList.size(); q++) {
+            System.out.printf("Question %d submitVote latency: p50 %d ns, p99 %d ns, p99.9 %d ns%n", q + 1,
+                metrics.getLatencyPercentile(q, 50), metrics.getLatencyPercentile(q, 99), metrics.getLatencyPercentile(q, 99.9));
+        }
+    }
+
+
+
+    /**
+     * Collects responses if driver is in manual mode.
+     * Prompts for the number of students and then takes individual responses for each question.
+     * @param scanner The Scanner object for reading user input.
+     */
+    public void collectStudentResponses(Scanner scanner) {
+        StudentRegistry studentRecords = new StudentRegistry(); // IDs used so far, checked in O(1)
+        System.out.print("How many students are using the iVote service? ");
+        int numberOfStudents = Integer.parseInt(scanner.nextLine());
+
+        for (int i = 0; i < numberOfStudents; i++) {
+            String studentID;
+            boolean uniqueID = false;
+
+
+            do {
+                System.out.print("Enter student ID: ");
+                studentID = scanner.nextLine();
+
+                // Error handling if the studentID has already been taken.
+                if (studentRecords.find(studentID) >= 0) {
+                    System.out.println("This student ID has already been used. Please enter a unique ID.");
+                } else {
+                    uniqueID = true;
+                    studentRecords.register(studentID);
+                }
+            } while (!uniqueID);
+
+            // For each unique studentID begin providing the questionList
+            Student student = new Student(studentID);
+            for (Question question: questionList) {
+                String answer;
+                do {
+                    System.out.println(question.getQuestionText());
+                    System.out.println("Choose an answer from: " + String.join(", ", question.getOptions()));
+                    if (question.isMultipleChoice()) {
+                        System.out.println("(More than one choice can be given, separated by commas, e.g. A,C)");
+                    }
+                    answer = scanner.nextLine();
+                } while (!question.isValidAnswer(answer));
+
+                student.submitAnswer(answer);
+                votingService.submitVote(student, question);
+            }
+        }
+    }
+
+
+    // Originally was used to create a studentID provided by a user's name. Opted for using a studentID system 
+    // instead to avoid having to deal with duplicate names.
+    /**
+     * Retrieves a unique student ID from the user and ensures it hasn't been used before.
+     *
+     * @param scanner The Scanner object for reading user input.
+     * @param studentRecords A map storing the names and IDs of students who have already responded.
+     * @return A unique student ID string.
+     */
+    // private String getUniqueStudentID(Scanner scanner, Map < String, String > studentRecords) {
+    //     String studentName;
+    //     String studentID = "";
+    //     boolean uniqueID = false; // Checks if the ID is unique
+
+    //     do {
+    //         System.out.print("Enter student's name: ");
+    //         studentName = scanner.nextLine();
+    //         if (studentRecords.containsKey(studentName)) {
+    //             System.out.println("A student may only take the test once.");
+    //             System.out.println("The student ID " + studentRecords.get(studentName) + " has already been used.");
+    //         } else {
+    //             // Generate random ID directly within the method:
+    //             studentID = String.format("%05d", randomID.nextInt(100000));
+    //             System.out.println("This is " + studentName + "'s ID number: " + studentID);
+    //             studentRecords.put(studentName, studentID);
+    //             uniqueID = true; // Set the flag when a unique ID is found
+    //         }
+    //     } while (!uniqueID); // Loop until a unique ID is found
+
+    //     return studentID;
+    // }
+
+
+
+    /**
+     * Logs every accepted vote to a journal file, replaying the votes already in it first.
+     * @param file The journal file.
+     * @throws IOException if the journal cannot be opened.
+     */
+    public void openJournal(Path file) throws IOException {
+        long recovered = votingService.openJournal(file);
+        System.out.println("Recovered " + recovered + " ballots from " + file);
+    }
+
+    /**
+     * Restores the session from a checkpoint file if there is one. Checkpoints are only written to
+     * it once startCheckpoints() is called, after the journal has been replayed.
+     * @param file The checkpoint file.
+     * @throws IOException if an existing checkpoint cannot be read.
+     */
+    public void openCheckpoint(Path file) throws IOException {
+        if (Files.exists(file)) {
+            long start = System.nanoTime();
+            int students = votingService.restoreCheckpoint(file);
+            System.out.printf("Restored %d students from %s in %d ms%n", students, file, (System.nanoTime() - start) / 1_000_000);
+        }
+        checkpointFile = file;
+    }
+
+    // Keeps checkpointing to the file given to openCheckpoint() in the background
+    public void startCheckpoints() {
+        if (checkpointFile != null) {
+            votingService.startCheckpoints(checkpointFile, CHECKPOINT_MILLIS);
+        }
+    }
+
+    // Stops the background checkpoints and writes a last one with the final results
+    public void closeCheckpoint() throws IOException {
+        if (checkpointFile != null) {
+            votingService.stopCheckpoints();
+            votingService.writeCheckpoint(checkpointFile);
+        }
+    }
+
+    // Writes any remaining journal records to disk
+    public void closeJournal() throws IOException {
+        votingService.closeJournal();
+    }
+
+    /**
+     * Streams votes from CSV or NDJSON files into the voting service, one file after another.
+     * See VoteStreamReader for the format.
+     * @param sources File names; "-" reads standard input.
+     * @throws IOException if a file cannot be read.
+     */
+    public void ingest(List < String > sources) throws IOException {
+        VoteStreamReader reader = new VoteStreamReader(votingService);
+        long start = System.nanoTime();
+        for (String source: sources) {
+            if ("-".equals(source)) {
+                reader.read(Channels.newChannel(System.in));
+            } else {
+                try (FileChannel channel = FileChannel.open(Paths.get(source), StandardOpenOption.READ)) {
+                    reader.read(channel);
+                }
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        System.out.printf("Read %d votes in %d ms (%.0f votes/s): %d accepted, %d invalid answers, %d malformed lines%n",
+            reader.getLines(), elapsedNanos / 1_000_000, reader.getLines() * 1e9 / Math.max(1, elapsedNanos),
+            reader.getAccepted(), reader.getRejected(), reader.getMalformed());
+    }
+
+    /**
+     * Takes votes over TCP on localhost through a VoteGateway until a line (or the end) is read
+     * from the given input. See VoteGateway for the protocol.
+     * @param port The port to listen on.
+     * @param workers How many threads count votes.
+     * @param stop Read until a line arrives; System.in in the driver.
+     * @throws IOException if the port cannot be bound.
+     */
+    public void serve(int port, int workers, java.io.InputStream stop) throws IOException {
+        VoteGateway gateway = new VoteGateway(votingService,
+            new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), port), workers);
+        long elapsedNanos;
+        try (gateway) {
+            System.out.println("Taking votes on localhost:" + gateway.getPort() + " with " + workers
+                + " workers, press Enter to stop");
+            long start = System.nanoTime();
+            new Scanner(stop).hasNextLine(); // Blocks until Enter, or the end of the input
+            elapsedNanos = System.nanoTime() - start;
+        }
+        // Closing waits for the batches being counted, so the numbers are final here
+        System.out.printf("Received %d votes in %d ms, %d batches waited for a worker%n",
+            gateway.getVotesReceived(), elapsedNanos / 1_000_000, gateway.getThrottled());
+    }
+
+    /**
+     * Counts one answer, addressed by question position instead of by Student and Question.
+     * @param studentID The student answering.
+     * @param questionIndex The question, in configuration order.
+     * @param answer The student's answer.
+     * @return true if the answer was valid and counted.
+     */
+    public boolean submitVote(String studentID, int questionIndex, CharSequence answer) {
+        return votingService.submitVote(studentID, questionIndex, answer);
+    }
+
+    // The questions of this session, in configuration order
+    public List < Question > getQuestions() {
+        return Collections.unmodifiableList(questionList);
+    }
+
+    // Point-in-time copy of the counted results
+    public ResultsSnapshot snapshot() {
+        return votingService.snapshot();
+    }
+
+    // Approximate heap held by the session's votes, in bytes
+    public long estimateMemoryBytes() {
+        return votingService.estimateMemoryBytes();
+    }
+
+    // Checks whether its mode is automatic or manual
+    public boolean isAutomaticMode() {
+        return automaticMode;
+    }
+
+    // Chooses the format displayResults uses (text, CSV or JSON)
+    public void setReportFormat(ReportFormat reportFormat) {
+        this.reportFormat = reportFormat;
+    }
+
+    /**
+     * Makes displayResults also show how the counts changed over the last few seconds.
+     * The results are sampled once a second from now on.
+     * @param seconds The length of the window.
+     */
+    public void setTrendWindow(int seconds) {
+        if (seconds <= 0) {
+            throw new IllegalArgumentException("The trend window must be at least one second");
+        }
+        votingService.startTrends(1000, Math.max(60, seconds + 1));
+        trendWindowMillis = seconds * 1000L;
+    }
+
+    // Calls the votingService class methods to display the counted results of users
+    public void displayResults() {
+        if (reportFormat == ReportFormat.TEXT) {
+            votingService.displayResults();
+            votingService.displayConsolidatedResults();
+        } else {
+            votingService.displayReport(reportFormat);
+        }
+        if (trendWindowMillis > 0) {
+            votingService.displayTrend(trendWindowMillis, reportFormat);
+        }
+        votingService.flushOutput(); // Make sure the report is out before anything else is printed
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,330 @@
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Stress check of concurrent voting: many threads submit a known set of votes at once, and the
+ * results have to come out exactly as if the votes had been counted one at a time.
+ *
+ *     java VotingStressCheck [threads] [students] [votesPerThread] [seed]
+ *
+ * threads         how many threads vote at once (default twice the processors, at least 4)
+ * students        how many students they vote as (default 10000)
+ * votesPerThread  how many random votes each thread submits in the first round (default 200000)
+ * seed            seed of the votes (default 1); the same seed sends the same votes
+ *
+ * The questions are the classroom poll plus one of 130 options, whose ballots span several longs.
+ * In the first round every thread votes for random students, so the same ballots are replaced
+ * from several threads at once. The threads take turns with submitVote(Student, Question),
+ * submitVote(id, question, answer) and submitVotes(batch), and one answer in twenty is invalid.
+ * In the second round every thread casts the last vote on every question for the students it
+ * owns (student i belongs to thread i mod threads), so their final ballots are known.
+ *
+ * While the votes are in flight, another thread keeps taking snapshots. Each must be made of
+ * whole ballots: no count below 0 or above the question's respondents, no more respondents than
+ * students and never fewer than the snapshot before, and for a single choice question exactly
+ * one vote per respondent. After each round every tally must equal the sum of the ballots the
+ * service holds. After the second, every ballot must be exactly that student's last vote, and
+ * the accepted, replaced and rejected counts must match what was sent. Mismatches are printed
+ * and the program exits with 1.
+ */
+public class VotingStressCheck {
+
+    // Votes per submitVotes call
+    private static final int BATCH_SIZE = 64;
+
+    // Mismatches printed before the rest are only counted
+    private static final int MAX_REPORTED = 20;
+
+    private static final List < String > problems = new ArrayList < > ();
+    private static int problemCount;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+        int students = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int votesPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+
+        List < Question > questions = new ArrayList < > (VotingSession.standardQuestions());
+        questions.add(VotingBenchmarkFixtures.questions(1, 130).get(0));
+        VotingService service = new VotingService();
+        questions.forEach(service::configureQuestion);
+        String[] ids = new String[students];
+        for (int i = 0; i < students; i++) {
+            ids[i] = LoadSimulation.studentId(i, 8);
+        }
+        System.out.println("Checking " + threads + " threads voting as " + students + " students on "
+            + questions.size() + " questions, seed " + seed);
+
+        // Round 1: every thread votes for any student
+        long[][] sent = run(threads, service, questions, students, thread -> {
+            SplittableRandom random = new SplittableRandom(seed * 1_000_003 - thread - 1);
+            Submitter submitter = new Submitter(service, questions);
+            for (int i = 0; i < votesPerThread; i++) {
+                int student = random.nextInt(students);
+                int q = random.nextInt(questions.size());
+                boolean invalid = random.nextInt(20) == 0;
+                String answer = invalid ? "" : answer(questions.get(q), random, null);
+                submitter.submit(i % 3, ids[student], q, answer, !invalid);
+            }
+            return submitter.finish();
+        });
+        checkTallies(service, questions, ids, "after round 1");
+
+        // Round 2: the last vote of every student on every question, each sent by the student's owner
+        long[][] last = run(threads, service, questions, students, thread -> {
+            Submitter submitter = new Submitter(service, questions);
+            int i = 0;
+            for (int student = thread; student < students; student += threads) {
+                for (int q = 0; q < questions.size(); q++) {
+                    submitter.submit(i++ % 3, ids[student], q, lastVote(seed, student, q, questions.get(q), null), true);
+                }
+            }
+            return submitter.finish();
+        });
+        checkTallies(service, questions, ids, "after round 2");
+        checkLastVotes(service, questions, ids, seed);
+
+        long valid = 0;
+        long invalid = 0;
+        for (long[][] round: new long[][][] {sent, last}) {
+            for (long[] counts: round) {
+                valid += counts[0];
+                invalid += counts[1];
+            }
+        }
+        MetricsSnapshot metrics = service.getMetrics();
+        check(metrics.getAccepted() == valid, "accepted " + metrics.getAccepted() + ", sent " + valid + " valid votes");
+        check(metrics.getRejected() == invalid, "rejected " + metrics.getRejected() + ", sent " + invalid + " invalid votes");
+        long firstVotes = (long) students * questions.size();
+        check(metrics.getReplaced() == valid - firstVotes, "replaced " + metrics.getReplaced() + ", expected " + (valid - firstVotes));
+
+        if (problemCount > 0) {
+            problems.forEach(System.out::println);
+            if (problemCount > problems.size()) {
+                System.out.println("... and " + (problemCount - problems.size()) + " more");
+            }
+            System.out.println("FAILED: " + problemCount + " mismatches");
+            System.exit(1);
+        }
+        System.out.println("OK: " + valid + " valid and " + invalid + " invalid votes, every tally and ballot matches");
+    }
+
+    // Every count must be the sum of the students' ballots, and every respondent must hold one
+    private static void checkTallies(VotingService service, List < Question > questions, String[] ids, String when) {
+        ResultsSnapshot snapshot = service.snapshot();
+        for (int q = 0; q < questions.size(); q++) {
+            int optionCount = questions.get(q).getOptionCodes().size();
+            long[] expected = new long[optionCount];
+            long respondents = 0;
+            for (String id: ids) {
+                long[] ballot = service.getBallot(id, q);
+                boolean answered = false;
+                for (int option = 0; option < optionCount; option++) {
+                    if ((ballot[option >>> 6] & (1L << option)) != 0) {
+                        expected[option]++;
+                        answered = true;
+                    }
+                }
+                if (answered) {
+                    respondents++;
+                }
+            }
+            long[] counts = snapshot.getCounts(q);
+            for (int option = 0; option < optionCount; option++) {
+                check(counts[option] == expected[option], when + ": question " + (q + 1) + " option "
+                    + questions.get(q).getOptionCodes().code(option) + " counted " + counts[option]
+                    + ", the ballots hold " + expected[option]);
+            }
+            check(snapshot.getRespondents(q) == respondents, when + ": question " + (q + 1) + " has "
+                + snapshot.getRespondents(q) + " respondents, the ballots " + respondents);
+        }
+    }
+
+    // What holds for a snapshot taken at any moment, even while votes are being counted.
+    // respondents holds each question's respondents in the previous snapshot and is updated.
+    private static void checkSnapshot(ResultsSnapshot snapshot, List < Question > questions, int students, long[] respondents) {
+        for (int q = 0; q < questions.size(); q++) {
+            Question question = questions.get(q);
+            long[] counts = snapshot.getCounts(q);
+            long answered = snapshot.getRespondents(q);
+            long votes = 0;
+            for (int option = 0; option < counts.length; option++) {
+                check(counts[option] >= 0 && counts[option] <= answered, "snapshot " + snapshot.getVersion()
+                    + ": question " + (q + 1) + " option " + question.getOptionCodes().code(option) + " counted "
+                    + counts[option] + " with " + answered + " respondents");
+                votes += counts[option];
+            }
+            check(answered >= respondents[q] && answered <= students, "snapshot " + snapshot.getVersion()
+                + ": question " + (q + 1) + " has " + answered + " respondents, the snapshot before " + respondents[q]);
+            if (!question.isMultipleChoice()) {
+                check(votes == answered, "snapshot " + snapshot.getVersion() + ": single choice question " + (q + 1)
+                    + " counted " + votes + " votes from " + answered + " respondents");
+            }
+            respondents[q] = answered;
+        }
+    }
+
+    // Every ballot must be the student's last vote
+    private static void checkLastVotes(VotingService service, List < Question > questions, String[] ids, long seed) {
+        for (int student = 0; student < ids.length; student++) {
+            for (int q = 0; q < questions.size(); q++) {
+                Question question = questions.get(q);
+                long[] expected = new long[ParsedAnswer.wordsFor(question.getOptionCodes().size())];
+                String vote = lastVote(seed, student, q, question, expected);
+                long[] ballot = service.getBallot(ids[student], q);
+                check(Arrays.equals(ballot, expected), ids[student] + " question " + (q + 1) + " last voted \""
+                    + vote + "\" but holds " + Arrays.toString(ballot));
+            }
+        }
+    }
+
+    // The last vote of a student on a question, the same whichever thread asks
+    private static String lastVote(long seed, int student, int q, Question question, long[] ballot) {
+        SplittableRandom random = new SplittableRandom(seed * 1_000_003 + (long) student * 64 + q);
+        return answer(question, random, ballot);
+    }
+
+    // A random valid answer: one option, or up to three for a multiple choice question.
+    // The chosen options are set in ballot, if one is given.
+    private static String answer(Question question, SplittableRandom random, long[] ballot) {
+        OptionCodeTable codes = question.getOptionCodes();
+        int picks = question.isMultipleChoice() ? 1 + random.nextInt(3) : 1;
+        StringBuilder answer = new StringBuilder();
+        for (int p = 0; p < picks; p++) {
+            int option = random.nextInt(codes.size());
+            if (p > 0) {
+                answer.append(',');
+            }
+            answer.append(codes.code(option));
+            if (ballot != null) {
+                ballot[option >>> 6] |= 1L << option;
+            }
+        }
+        return answer.toString();
+    }
+
+    private static synchronized void check(boolean condition, String problem) {
+        if (!condition) {
+            if (problemCount++ < MAX_REPORTED) {
+                problems.add(problem);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Round {
+        long[] run(int thread);
+    }
+
+    // Runs a round on all threads at once, checking snapshots until they are done, and returns
+    // each thread's {valid, invalid} votes sent
+    private static long[][] run(int threads, VotingService service, List < Question > questions, int students,
+        Round round) throws InterruptedException {
+        long[][] sent = new long[threads][];
+        Throwable[] failures = new Throwable[threads];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    sent[thread] = round.run(thread);
+                } catch (Throwable e) {
+                    failures[thread] = e;
+                }
+            }, "stress-" + t);
+            workers[t].start();
+        }
+        Watcher watcher = new Watcher(service, questions, students);
+        watcher.start();
+        start.countDown();
+        for (Thread worker: workers) {
+            worker.join();
+        }
+        watcher.finish();
+        for (Throwable failure: failures) {
+            if (failure != null) {
+                failure.printStackTrace();
+                System.out.println("FAILED: a voting thread threw " + failure);
+                System.exit(1);
+            }
+        }
+        return sent;
+    }
+
+    // Takes and checks snapshots while a round runs
+    private static final class Watcher extends Thread {
+        private final VotingService service;
+        private final List < Question > questions;
+        private final int students;
+        private final long[] respondents;
+        private volatile boolean done;
+        private long snapshots;
+
+        Watcher(VotingService service, List < Question > questions, int students) {
+            super("stress-snapshots");
+            this.service = service;
+            this.questions = questions;
+            this.students = students;
+            this.respondents = new long[questions.size()];
+        }
+
+        @Override
+        public void run() {
+            while (!done) {
+                checkSnapshot(service.snapshot(), questions, students, respondents);
+                snapshots++;
+            }
+        }
+
+        void finish() throws InterruptedException {
+            done = true;
+            join();
+            System.out.println("Checked " + snapshots + " snapshots taken while the votes were counted");
+        }
+    }
+
+    // Sends one thread's votes through the three ways of submitting, counting what it sent
+    private static final class Submitter {
+        private final VotingService service;
+        private final List < Question > questions;
+        private final VoteBatch batch = new VoteBatch(BATCH_SIZE);
+        private long valid;
+        private long invalid;
+
+        Submitter(VotingService service, List < Question > questions) {
+            this.service = service;
+            this.questions = questions;
+        }
+
+        void submit(int way, String studentId, int q, String answer, boolean isValid) {
+            if (isValid) {
+                valid++;
+            } else {
+                invalid++;
+            }
+            if (way == 0) {
+                Student student = new Student(studentId);
+                student.submitAnswer(answer);
+                service.submitVote(student, questions.get(q));
+            } else if (way == 1) {
+                service.submitVote(studentId, q, answer);
+            } else {
+                batch.add(studentId, q, answer);
+                if (batch.size() == BATCH_SIZE) {
+                    service.submitVotes(batch);
+                    batch.clear();
+                }
+            }
+        }
+
+        long[] finish() {
+            if (batch.size() > 0) {
+                service.submitVotes(batch);
+                batch.clear();
+            }
+            return new long[] {valid, invalid};
+        }
+    }
+}
@@ -0,0 +1,306 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Seeded description of a simulated voting workload: how many students vote, how their answers
+ * are spread over the options (uniformly, or skewed like a Zipf distribution), how often they
+ * change their mind and how often they type something invalid.
+ *
+ * The votes of a workload are a pure function of the profile and the student's number: every
+ * student draws from a generator seeded with the profile's seed and that number alone. The same
+ * seed therefore gives exactly the same votes, student by student, however the students are
+ * split between threads, which keeps benchmark runs comparable. Student IDs are a permutation
+ * of the student numbers, so they look random but never collide.
+ *
+ * Profiles are immutable; the with methods return changed copies.
+ */
+final class WorkloadProfile {
+
+    /** Receives the votes of a simulated student. */
+    @FunctionalInterface
+    interface VoteSink {
+        /**
+         * @param studentID The student voting.
+         * @param questionIndex The question, in configuration order.
+         * @param answer The answer, valid or not.
+         */
+        void vote(String studentID, int questionIndex, String answer);
+    }
+
+    // Nobody answers a question more often than this, however high the resubmission rate
+    static final int MAX_ANSWERS = 64;
+
+    // Share of multiple-choice answers that pick a second option, e.g. "A,C"
+    private static final double SECOND_PICK_RATE = 0.25;
+
+    // Malformed answers students type when they get it wrong; see Generator.invalidAnswers()
+    private static final String[] MALFORMED_ANSWERS = {"", " ", ",", "yes please"};
+
+    private final long seed;
+    private final int students;
+    private final double zipfExponent;
+    private final double resubmissionRate;
+    private final double invalidRate;
+
+    /**
+     * @param seed Seed of every random choice in the workload.
+     * @param students How many students vote.
+     * @param zipfExponent Skew of the answers: 0 spreads them evenly over the options, 1 or more
+     *        makes the first-ranked option of every question far more popular than the rest.
+     * @param resubmissionRate Chance that a student answers the same question again after each
+     *        answer, from 0 (one answer each) up to but excluding 1.
+     * @param invalidRate Chance that an answer is invalid, from 0 to 1.
+     * @throws IllegalArgumentException if a value is out of range.
+     */
+    WorkloadProfile(long seed, int students, double zipfExponent, double resubmissionRate, double invalidRate) {
+        if (students < 0 || !(zipfExponent >= 0) || !(resubmissionRate >= 0 && resubmissionRate < 1)
+            || !(invalidRate >= 0 && invalidRate <= 1)) {
+            throw new IllegalArgumentException("Expected students >= 0, zipf exponent >= 0, 0 <= resubmission rate < 1 "
+                + "and 0 <= invalid rate <= 1");
+        }
+        this.seed = seed;
+        this.students = students;
+        this.zipfExponent = zipfExponent;
+        this.resubmissionRate = resubmissionRate;
+        this.invalidRate = invalidRate;
+    }
+
+    /**
+     * @param seed Seed of every random choice in the workload.
+     * @param students How many students vote.
+     * @return A profile with uniform answers, about 3 answers per student and question and no invalid answers.
+     */
+    static WorkloadProfile defaults(long seed, int students) {
+        return new WorkloadProfile(seed, students, 0, 0.7, 0);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getStudents() {
+        return students;
+    }
+
+    public double getZipfExponent() {
+        return zipfExponent;
+    }
+
+    public double getResubmissionRate() {
+        return resubmissionRate;
+    }
+
+    public double getInvalidRate() {
+        return invalidRate;
+    }
+
+    public WorkloadProfile withSeed(long seed) {
+        return new WorkloadProfile(seed, students, zipfExponent, resubmissionRate, invalidRate);
+    }
+
+    public WorkloadProfile withStudents(int students) {
+        return new WorkloadProfile(seed, students, zipfExponent, resubmissionRate, invalidRate);
+    }
+
+    public WorkloadProfile withZipfExponent(double zipfExponent) {
+        return new WorkloadProfile(seed, students, zipfExponent, resubmissionRate, invalidRate);
+    }
+
+    public WorkloadProfile withResubmissionRate(double resubmissionRate) {
+        return new WorkloadProfile(seed, students, zipfExponent, resubmissionRate, invalidRate);
+    }
+
+    public WorkloadProfile withInvalidRate(double invalidRate) {
+        return new WorkloadProfile(seed, students, zipfExponent, resubmissionRate, invalidRate);
+    }
+
+    /**
+     * Parses an answer skew: "uniform", "zipf" (exponent 1) or "zipf:<exponent>".
+     * @param skew The skew.
+     * @return The Zipf exponent, 0 for uniform.
+     * @throws IllegalArgumentException if the skew cannot be read.
+     */
+    static double parseSkew(String skew) {
+        String name = skew.trim().toLowerCase(java.util.Locale.ROOT);
+        if (name.equals("uniform")) {
+            return 0;
+        }
+        if (name.equals("zipf")) {
+            return 1;
+        }
+        if (name.startsWith("zipf:")) {
+            return Double.parseDouble(name.substring(5));
+        }
+        throw new IllegalArgumentException("Unknown skew '" + skew + "', expected uniform, zipf or zipf:<exponent>");
+    }
+
+    @Override
+    public String toString() {
+        return String.format(java.util.Locale.ROOT, "seed %d, %d students, %s answers, resubmission rate %.2f, invalid rate %.2f",
+            seed, students, zipfExponent == 0 ? "uniform" : "zipf " + zipfExponent, resubmissionRate, invalidRate);
+    }
+
+    /**
+     * @param questions The questions the students answer, in configuration order.
+     * @return A generator of this workload's votes for those questions.
+     */
+    public Generator forQuestions(List < Question > questions) {
+        return new Generator(questions);
+    }
+
+    /**
+     * The votes of a profile for a given set of questions. Option codes and answer weights are
+     * worked out once here; generating a student's votes then only draws random numbers. A
+     * generator is immutable and can be shared by any number of threads.
+     */
+    final class Generator {
+        private final String[][] codes; // Option codes per question, in popularity order
+        private final String[][] invalid; // Answers each question is sure to reject
+        private final double[][] cumulative; // Running total of the option weights per question
+        private final boolean[] multipleChoice;
+        private final int idDigits;
+        private final long idMultiplier;
+        private final long idOffset;
+        private final long idRange;
+
+        private Generator(List < Question > questions) {
+            codes = new String[questions.size()][];
+            invalid = new String[questions.size()][];
+            cumulative = new double[questions.size()][];
+            multipleChoice = new boolean[questions.size()];
+            SplittableRandom shuffle = new SplittableRandom(seed);
+            for (int q = 0; q < codes.length; q++) {
+                OptionCodeTable table = questions.get(q).getOptionCodes();
+                int optionCount = table.size();
+                // Which option is most popular is itself random, so not every question favours its first option
+                int rotation = shuffle.nextInt(optionCount);
+                codes[q] = new String[optionCount];
+                cumulative[q] = new double[optionCount];
+                double total = 0;
+                for (int rank = 0; rank < optionCount; rank++) {
+                    codes[q][rank] = table.code((rank + rotation) % optionCount);
+                    total += 1 / Math.pow(rank + 1, zipfExponent);
+                    cumulative[q][rank] = total;
+                }
+                multipleChoice[q] = questions.get(q).isMultipleChoice();
+                invalid[q] = invalidAnswers(questions.get(q));
+            }
+
+            idDigits = Math.max(5, Long.toString(Math.max(0, students - 1)).length());
+            long range = 1;
+            for (int i = 0; i < idDigits; i++) {
+                range *= 10;
+            }
+            idRange = range;
+            idOffset = Math.floorMod(mix(seed), range);
+            idMultiplier = 7_654_321L % range; // Shares no factor with a power of ten, so i -> ID is a permutation
+        }
+
+        /**
+         * @return How many students the workload has.
+         */
+        public int getStudents() {
+            return students;
+        }
+
+        /**
+         * @param student The student's number, from 0.
+         * @return The student's ID, unique within the workload.
+         */
+        public String studentId(int student) {
+            long id = Math.floorMod(idMultiplier * student + idOffset, idRange);
+            char[] digits = new char[idDigits + 1];
+            digits[0] = 'S';
+            for (int position = idDigits; position > 0; position--) {
+                digits[position] = (char) ('0' + id % 10);
+                id /= 10;
+            }
+            return new String(digits);
+        }
+
+        /**
+         * Generates all votes of one student, question by question, in the order they are cast.
+         * @param student The student's number, from 0.
+         * @param sink Receives the votes.
+         * @return How many votes were generated.
+         */
+        public int votesOf(int student, VoteSink sink) {
+            SplittableRandom random = new SplittableRandom(mix(seed ^ mix(student + 1L)));
+            String studentId = studentId(student);
+            int votes = 0;
+            for (int q = 0; q < codes.length; q++) {
+                int answers = 1;
+                while (answers < MAX_ANSWERS && random.nextDouble() < resubmissionRate) {
+                    answers++;
+                }
+                for (int j = 0; j < answers; j++) {
+                    sink.vote(studentId, q, answer(q, random));
+                }
+                votes += answers;
+            }
+            return votes;
+        }
+
+        private String answer(int q, SplittableRandom random) {
+            if (invalidRate > 0 && random.nextDouble() < invalidRate) {
+                return invalid[q][random.nextInt(invalid[q].length)];
+            }
+            int first = pick(q, random);
+            if (multipleChoice[q] && codes[q].length > 1 && random.nextDouble() < SECOND_PICK_RATE) {
+                int second = pick(q, random);
+                if (second != first) {
+                    return codes[q][first] + "," + codes[q][second];
+                }
+            }
+            return codes[q][first];
+        }
+
+        // Invalid answers for a question: malformed ones, a code the question does not have, an
+        // empty pick in a list, and two picks for a single choice. Only those the question really
+        // rejects are kept, since a catalogue may well define "0" or "?" as a code.
+        private String[] invalidAnswers(Question question) {
+            OptionCodeTable table = question.getOptionCodes();
+            String unknown = "X";
+            while (table.indexOf(unknown, 0, unknown.length(), true) >= 0) {
+                unknown += "X";
+            }
+            List < String > candidates = new ArrayList < > (Arrays.asList(MALFORMED_ANSWERS));
+            candidates.add(unknown);
+            candidates.add(table.code(0) + ",," + table.code(0));
+            if (table.size() > 1) {
+                candidates.add(table.code(0) + "," + table.code(1));
+            }
+            candidates.removeIf(answer -> question.parseAnswer(answer).isValid());
+            return candidates.toArray(new String[0]);
+        }
+
+        // Draws an option rank from the question's weights
+        private int pick(int q, SplittableRandom random) {
+            double[] weights = cumulative[q];
+            if (zipfExponent == 0) {
+                return random.nextInt(weights.length);
+            }
+            double target = random.nextDouble() * weights[weights.length - 1];
+            int low = 0;
+            int high = weights.length - 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (weights[middle] > target) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            return low;
+        }
+    }
+
+    // SplitMix64 finalizer: spreads nearby inputs (seed, student numbers) over all 64 bits
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,264 @@
+package ivote.benchmark;
+
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmarks of the vote submit and result paths, so changes to the hot path can be compared
+ * release to release. Run them with Maven:
+ *
+ *     mvn -B test-compile exec:exec -Djmh.args="[JMH options]"
+ *
+ * main() runs every benchmark at 1, N/2 and N threads (N = processors), passing any JMH options
+ * on, e.g. "-f 1 -wi 1 -i 2 submitVote" for a rough number of one benchmark. The question sets
+ * are the shape parameter: questions x options per question. submitVote and submitVotes also
+ * run with metrics switched off; the difference is what the metrics cost.
+ *
+ * The operations themselves are built by VotingBenchmarkFixtures, next to the classes they
+ * measure; see Fixtures for why.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VotingBenchmark {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions options = new CommandLineOptions(args);
+        int processors = Runtime.getRuntime().availableProcessors();
+        SortedSet < Integer > threadCounts = new TreeSet < > (Arrays.asList(1, Math.max(1, processors / 2), processors));
+        for (int threads: threadCounts) {
+            OptionsBuilder run = new OptionsBuilder();
+            run.parent(options).threads(threads);
+            if (options.getIncludes().isEmpty()) {
+                run.include(VotingBenchmark.class.getName());
+            }
+            new Runner(run.build()).run();
+        }
+    }
+
+    // A service taking votes; one per trial, shared by every thread
+    @State(Scope.Benchmark)
+    public static class Voting {
+        @Param({"4x4", "50x26", "500x200"})
+        public String shape;
+
+        @Param({"true", "false"})
+        public boolean metrics;
+
+        Object service;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            service = Fixtures.call("service", questions(shape), options(shape), metrics, false);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            Fixtures.call("close", service);
+        }
+    }
+
+    // A thread's own voter: submits the votes of its own students
+    @State(Scope.Thread)
+    public static class Voter {
+        Runnable submitVote;
+        Runnable submitVotes;
+
+        @Setup(Level.Trial)
+        public void setUp(Voting voting, ThreadParams thread) {
+            submitVote = Fixtures.call("submitVote", voting.service, thread.getThreadIndex());
+            submitVotes = Fixtures.call("submitVotes", voting.service, thread.getThreadIndex());
+        }
+    }
+
+    // A service that already holds votes, for the result paths
+    @State(Scope.Benchmark)
+    public static class Results {
+        @Param({"4x4", "50x26", "500x200"})
+        public String shape;
+
+        Object service;
+        Runnable displayConsolidatedResults;
+        Runnable displayResults;
+        LongSupplier snapshot;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            service = Fixtures.call("service", questions(shape), options(shape), true, true);
+            displayConsolidatedResults = Fixtures.call("displayConsolidatedResults", service);
+            displayResults = Fixtures.call("displayResults", service);
+            snapshot = Fixtures.call("snapshot", service);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            Fixtures.call("close", service);
+        }
+    }
+
+    // A multiple choice question; validation keeps a position of its own per thread
+    @State(Scope.Thread)
+    public static class MultipleChoice {
+        @Param({"4", "26", "200"})
+        public int options;
+
+        BooleanSupplier isValid;
+        BooleanSupplier isValidMultiSelect;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            isValid = Fixtures.call("isValidMultiple", options);
+            isValidMultiSelect = Fixtures.call("isValidMultiSelect", options);
+        }
+    }
+
+    // The yes/no question of the classroom poll, which always has two options
+    @State(Scope.Thread)
+    public static class SingleChoice {
+        BooleanSupplier isValid;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            isValid = Fixtures.call("isValidSingle");
+        }
+    }
+
+    // The automatic mode of a thread, with its console output discarded
+    @State(Scope.Thread)
+    public static class Session {
+        Runnable generateStudents;
+
+        @Setup(Level.Trial)
+        public void setUp(ThreadParams thread) {
+            generateStudents = Fixtures.call("generateStudents", thread.getThreadIndex());
+        }
+    }
+
+    // System.out while the automatic mode runs; restored once the trial is over
+    @State(Scope.Benchmark)
+    public static class Console {
+        PrintStream console;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            console = System.out;
+            System.setOut(Fixtures.call("nullPrintStream"));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            System.setOut(console);
+        }
+    }
+
+    @Benchmark
+    public void submitVote(Voter voter) {
+        voter.submitVote.run();
+    }
+
+    // One op is one vote, as for submitVote: a run submits a batch of VotingBenchmarkFixtures.batchSize() votes
+    @Benchmark
+    @OperationsPerInvocation(1024)
+    public void submitVotes(Voter voter) {
+        voter.submitVotes.run();
+    }
+
+    @Benchmark
+    public boolean isValidAnswerMultiple(MultipleChoice question) {
+        return question.isValid.getAsBoolean();
+    }
+
+    @Benchmark
+    public boolean isValidAnswerMultiSelect(MultipleChoice question) {
+        return question.isValidMultiSelect.getAsBoolean();
+    }
+
+    @Benchmark
+    public boolean isValidAnswerSingle(SingleChoice question) {
+        return question.isValid.getAsBoolean();
+    }
+
+    // Until the report has been written out
+    @Benchmark
+    public void displayConsolidatedResults(Results results) {
+        results.displayConsolidatedResults.run();
+    }
+
+    @Benchmark
+    public void displayResults(Results results) {
+        results.displayResults.run();
+    }
+
+    @Benchmark
+    public long snapshot(Results results) {
+        return results.snapshot.getAsLong();
+    }
+
+    @Benchmark
+    public void generateStudents(Console console, Session session) {
+        session.generateStudents.run();
+    }
+
+    // "50x26" is 50 questions of 26 options
+    static int questions(String shape) {
+        return Integer.parseInt(shape.substring(0, shape.indexOf('x')));
+    }
+
+    static int options(String shape) {
+        return Integer.parseInt(shape.substring(shape.indexOf('x') + 1));
+    }
+
+    /**
+     * Calls into VotingBenchmarkFixtures. The voting classes live in the unnamed package, which
+     * code in a named package cannot refer to, and JMH refuses benchmarks in the unnamed package.
+     * The fixtures are therefore looked up by name, once per trial; the operations they return
+     * are plain java.util.function types that the benchmarks call directly.
+     */
+    static final class Fixtures {
+        private static final Class < ? > FIXTURES;
+
+        static {
+            try {
+                FIXTURES = Class.forName("VotingBenchmarkFixtures");
+            } catch (ClassNotFoundException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private Fixtures() {
+        }
+
+        @SuppressWarnings("unchecked")
+        static < T > T call(String name, Object... args) {
+            for (Method method: FIXTURES.getMethods()) {
+                if (method.getName().equals(name) && method.getParameterCount() == args.length) {
+                    try {
+                        return (T) method.invoke(null, args);
+                    } catch (IllegalAccessException e) {
+                        throw new IllegalStateException(e);
+                    } catch (InvocationTargetException e) {
+                        throw new IllegalStateException(name + " failed", e.getCause());
+                    }
+                }
+            }
+            throw new IllegalArgumentException("VotingBenchmarkFixtures has no method " + name);
+        }
+    }
+}
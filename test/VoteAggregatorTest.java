@@ -0,0 +1,34 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+class VoteAggregatorTest {
+
+    @Test
+    void answerTypeCountsYesAndNoAsTrueAndFalse() {
+        Question single = new QuestionSingleChoice("Do you take the elevator to class?", Arrays.asList("[1] for Yes", "[2] for No"));
+        VoteAggregator aggregator = VoteAggregator.of(VoteAggregator.BY_ANSWER_TYPE, Collections.singletonList(single));
+
+        Map < String, Long > totals = aggregator.aggregate(new long[][] {{7, 3}});
+
+        assertEquals(Map.of("True", 7L, "False", 3L), totals);
+    }
+
+    @Test
+    void answerTypeKeepsNumericCodesOfMultipleChoiceQuestions() {
+        Question numbered = new QuestionMultipleChoice("Which rooms did you use?", Arrays.asList("[1] Lab", "[2] Library", "[3] Hall"));
+        Question single = new QuestionSingleChoice("Is this class CS3560?", Arrays.asList("[1] for Yes", "[2] for No"));
+        VoteAggregator aggregator = VoteAggregator.of(VoteAggregator.BY_ANSWER_TYPE, Arrays.asList(numbered, single));
+
+        Map < String, Long > totals = aggregator.aggregate(new long[][] {{4, 5, 6}, {1, 2}});
+
+        Map < String, Long > expected = new LinkedHashMap < > ();
+        expected.put("1", 4L);
+        expected.put("2", 5L);
+        expected.put("3", 6L);
+        expected.put("True", 1L);
+        expected.put("False", 2L);
+        assertEquals(expected, totals);
+    }
+}
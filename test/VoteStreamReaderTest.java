@@ -0,0 +1,33 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+class VoteStreamReaderTest {
+
+    @Test
+    void overlongStudentIdIsMalformedAndTheRestIsStillRead() throws IOException {
+        VotingService service = new VotingService();
+        service.configureQuestion(new QuestionSingleChoice("Do you take the elevator to class?", Arrays.asList("[1] for Yes", "[2] for No")));
+        String overlong = "S" + "9".repeat(StudentRegistry.MAX_ID_LENGTH);
+        String stream = "student,question,answer\n"
+            + "S0001,1,1\n"
+            + overlong + ",1,2\n"
+            + "{\"studentId\":\"" + overlong + "\",\"question\":1,\"answer\":\"2\"}\n"
+            + "S0002,1,2\n"
+            + "S0003,1,7\n";
+
+        VoteStreamReader reader = new VoteStreamReader(service);
+        reader.read(Channels.newChannel(new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8))));
+
+        assertEquals(5, reader.getLines());
+        assertEquals(2, reader.getAccepted());
+        assertEquals(1, reader.getRejected());
+        assertEquals(2, reader.getMalformed());
+        assertEquals(2, service.snapshot().getRespondents(0));
+    }
+}